@@ -0,0 +1,75 @@
+package com.upgrade.codechallenge.benchmark;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the spirit of HdrHistogram: exact below 128 and
+ * within 1/64 (about 1.6%) of the recorded value above, for any value up to 2^40.
+ * Recording is a single atomic increment, so worker threads share one instance.
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int MAX_SHIFT = 34;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + MAX_SHIFT * SUB_BUCKETS);
+
+    void record(long value) {
+        this.counts.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            total += this.counts.get(i);
+        }
+        return total;
+    }
+
+    // Highest value equivalent to the one at the given percentile, 0 when nothing was recorded
+    long percentile(double percentile) {
+        long total = this.count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return highestEquivalent(i);
+            }
+        }
+        return highestEquivalent(this.counts.length() - 1);
+    }
+
+    long max() {
+        for (int i = this.counts.length() - 1; i >= 0; i--) {
+            if (this.counts.get(i) > 0) {
+                return highestEquivalent(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        if (shift > MAX_SHIFT) {
+            return LINEAR + MAX_SHIFT * SUB_BUCKETS - 1;
+        }
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+}
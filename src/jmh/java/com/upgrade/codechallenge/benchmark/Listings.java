@@ -0,0 +1,25 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.upgrade.codechallenge.model.Reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+final class Listings {
+
+    private Listings() {}
+
+    // Fixed dates and ids, three nights per reservation, so every run encodes the same bytes
+    static List<Reservation> nights(int count) {
+        LocalDate arrival = LocalDate.of(2019, 2, 1);
+        List<Reservation> reservations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String resourceId = new UUID(i / 3, i / 3).toString();
+            reservations.add(new Reservation(arrival.plusDays(i), arrival.plusDays(i + 1),
+                    "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
+        }
+        return reservations;
+    }
+}
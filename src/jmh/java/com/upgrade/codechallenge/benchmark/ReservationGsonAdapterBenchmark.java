@@ -0,0 +1,70 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.util.ReservationGsonAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ReservationGsonAdapter reading and writing a listing of the given number of nights
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReservationGsonAdapterBenchmark {
+
+    @Param({"1", "30"})
+    private int nights;
+
+    private final ReservationGsonAdapter adapter = new ReservationGsonAdapter();
+    private List<Reservation> reservations;
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        this.reservations = Listings.nights(this.nights);
+        this.json = this.write();
+    }
+
+    @Benchmark
+    public String write() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Reservation reservation : this.reservations) {
+            this.adapter.write(writer, reservation);
+        }
+        writer.endArray();
+        writer.flush();
+        return out.toString();
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(this.json));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            blackhole.consume(this.adapter.read(reader));
+        }
+        reader.endArray();
+    }
+}
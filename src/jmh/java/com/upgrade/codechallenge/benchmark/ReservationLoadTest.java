@@ -0,0 +1,266 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.upgrade.codechallenge.CodechallengeApplication;
+import com.upgrade.codechallenge.model.Booking;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.repository.BookingRepository;
+import com.upgrade.codechallenge.repository.ReservationRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reproduces the rush on the nights that have just become bookable, 27 to 30 days out:
+ * many clients released at once POST, PATCH and DELETE reservations over the same
+ * few nights of an embedded instance. Reports throughput, conflict rate and latency
+ * percentiles per operation, then checks that no night ended up booked twice and that
+ * the API lists exactly what the database holds.
+ *
+ * Run with:
+ * mvn -Pbenchmark test-compile exec:exec@load-test
+ *
+ * Settings are system properties, passed through load.args, e.g.
+ * -Dload.args="-Dthreads=128 -Drequests=20000 -Dstorage=range"
+ * threads (64), requests (5000), seed (42) and storage (daily).
+ */
+public class ReservationLoadTest {
+
+    private static final String CONFLICT = "The camp is already reserved for that date range.";
+
+    private enum Operation { POST, PATCH, DELETE }
+
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong conflicts = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private static final class Result {
+        final int status;
+        final JsonObject body;
+
+        Result(int status, JsonObject body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 64);
+        int requests = Integer.getInteger("requests", 5000);
+        long seed = Long.getLong("seed", 42);
+        String storage = System.getProperty("storage", "daily");
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CodechallengeApplication.class)
+                .properties("server.port=0",
+                        "reservation.storage=" + storage,
+                        "spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        // Every request comes from one address, which the rate limiter would throttle
+                        "reservation.ratelimit.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        int exitCode = 0;
+        try {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            String base = "http://localhost:" + port + "/reservation";
+
+            Map<Operation, Stats> stats = new HashMap<>();
+            for (Operation operation : Operation.values()) {
+                stats.put(operation, new Stats());
+            }
+            AtomicInteger remaining = new AtomicInteger(requests);
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(seed + t);
+                workers.execute(() -> {
+                    List<String> owned = new ArrayList<>();
+                    try {
+                        start.await();
+                        while (remaining.getAndDecrement() > 0) {
+                            runOne(base, random, owned, stats);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            long began = System.nanoTime();
+            start.countDown();
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.HOURS);
+            double seconds = (System.nanoTime() - began) / 1e9;
+
+            report(stats, requests, threads, seconds);
+            List<String> violations = checkInvariants(context, storage, base);
+            if (violations.isEmpty()) {
+                System.out.println("Invariants hold: no night is booked twice and the API matches the database.");
+            } else {
+                violations.forEach(System.out::println);
+                exitCode = 1;
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(exitCode);
+    }
+
+    // Mostly new bookings, as in the rush; PATCH and DELETE act on the client's own reservations
+    private static void runOne(String base, Random random, List<String> owned, Map<Operation, Stats> stats) {
+        LocalDate today = LocalDate.now();
+        LocalDate arrival = today.plusDays(27 + random.nextInt(4));
+        LocalDate departure = arrival.plusDays(1 + random.nextInt(3));
+        int roll = random.nextInt(100);
+        Operation operation = owned.isEmpty() || roll < 70 ? Operation.POST : roll < 90 ? Operation.PATCH : Operation.DELETE;
+
+        long startedAt = System.nanoTime();
+        Result result;
+        try {
+            switch (operation) {
+                case POST:
+                    JsonObject reservation = dates(arrival, departure);
+                    reservation.addProperty("name", "Load Test");
+                    reservation.addProperty("email", "load-" + Thread.currentThread().getId() + "@example.com");
+                    result = send("POST", base, reservation);
+                    break;
+                case PATCH:
+                    result = send("PATCH", base + "/" + owned.get(random.nextInt(owned.size())), dates(arrival, departure));
+                    break;
+                default:
+                    result = send("DELETE", base + "/" + owned.remove(random.nextInt(owned.size())), null);
+                    break;
+            }
+        } catch (IOException e) {
+            result = new Result(-1, null);
+        }
+        Stats operationStats = stats.get(operation);
+        operationStats.latency.record((System.nanoTime() - startedAt) / 1000);
+        if (result.status == 200) {
+            operationStats.ok.incrementAndGet();
+            if (operation == Operation.POST) {
+                owned.add(result.body.get("content").getAsString());
+            }
+        } else if (result.status == 400 && result.body != null && isConflict(result.body.get("error"))) {
+            operationStats.conflicts.incrementAndGet();
+        } else {
+            operationStats.errors.incrementAndGet();
+        }
+    }
+
+    private static boolean isConflict(JsonElement error) {
+        return error != null && !error.isJsonNull() && CONFLICT.equals(error.getAsString());
+    }
+
+    private static JsonObject dates(LocalDate arrival, LocalDate departure) {
+        JsonObject dates = new JsonObject();
+        dates.addProperty("arrivalDate", arrival.toString());
+        dates.addProperty("departureDate", departure.toString());
+        return dates;
+    }
+
+    private static Result send(String method, String url, JsonObject body) throws IOException {
+        // HttpURLConnection has no PATCH; the HiddenHttpMethodFilter turns a POST with _method into one
+        boolean override = "PATCH".equals(method);
+        HttpURLConnection connection = (HttpURLConnection) new URL(override ? url + "?_method=PATCH" : url).openConnection();
+        connection.setRequestMethod(override ? "POST" : method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String text = in == null ? "" : read(in);
+        return new Result(status, text.isEmpty() ? null : new JsonParser().parse(text).getAsJsonObject());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = stream.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void report(Map<Operation, Stats> stats, int requests, int threads, double seconds) {
+        System.out.printf("%d requests from %d threads in %.2f s: %.0f req/s%n", requests, threads, seconds, requests / seconds);
+        System.out.printf("%-7s %7s %7s %9s %7s %9s %9s %9s %9s %9s%n",
+                "", "count", "ok", "conflicts", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        long conflicts = 0;
+        long attempts = 0;
+        for (Operation operation : Operation.values()) {
+            Stats s = stats.get(operation);
+            System.out.printf("%-7s %7d %7d %9d %7d %9d %9d %9d %9d %9d%n", operation,
+                    s.latency.count(), s.ok.get(), s.conflicts.get(), s.errors.get(),
+                    s.latency.percentile(50), s.latency.percentile(90), s.latency.percentile(99),
+                    s.latency.percentile(99.9), s.latency.max());
+            if (operation != Operation.DELETE) {
+                conflicts += s.conflicts.get();
+                attempts += s.latency.count();
+            }
+        }
+        System.out.printf("Conflict rate (POST and PATCH): %.1f%%%n", attempts == 0 ? 0 : 100.0 * conflicts / attempts);
+    }
+
+    private static List<String> checkInvariants(ConfigurableApplicationContext context, String storage, String base) throws IOException {
+        List<Reservation> stored = new ArrayList<>();
+        if ("range".equals(storage)) {
+            for (Booking booking : context.getBean(BookingRepository.class).findAll()) {
+                stored.addAll(booking.toReservations());
+            }
+        } else {
+            stored.addAll(context.getBean(ReservationRepository.class).findAll());
+        }
+        List<String> violations = new ArrayList<>();
+        Map<LocalDate, String> owners = new HashMap<>();
+        for (Reservation night : stored) {
+            String previous = owners.put(night.getArrivalDate(), night.getResourceId());
+            if (previous != null) {
+                violations.add("Night " + night.getArrivalDate() + " is booked by both " + previous + " and " + night.getResourceId());
+            }
+        }
+        LocalDate today = LocalDate.now();
+        Result listing = send("GET", base + "?arrival=" + today + "&departure=" + today.plusDays(40), null);
+        JsonArray listed = listing.body.getAsJsonArray("content");
+        Map<LocalDate, String> listedOwners = new HashMap<>();
+        for (JsonElement element : listed) {
+            JsonObject night = element.getAsJsonObject();
+            listedOwners.put(LocalDate.parse(night.get("arrival_date").getAsString()), night.get("id").getAsString());
+        }
+        if (!listedOwners.equals(owners)) {
+            violations.add("GET /reservation lists " + listedOwners + " but the database holds " + owners);
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,109 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.upgrade.codechallenge.CodechallengeApplication;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.repository.ReservationRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups by resource id and by guest email through ReservationRepository while the
+ * reservation table grows. Hibernate creates the schema from the entity, indexes
+ * included, so the average time should stay flat across the row counts.
+ *
+ * Filling the larger tables takes a while, so each row count runs in a single fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationLookupBenchmark {
+
+    private static final int NIGHTS_PER_RESERVATION = 3;
+    private static final int CAMPSITES = 1000;
+    private static final int CHUNK = 10_000;
+
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private ReservationRepository reservationRepository;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        this.context = new SpringApplicationBuilder(CodechallengeApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:lookup" + this.rows + ";DB_CLOSE_DELAY=-1",
+                        "spring.jpa.hibernate.ddl-auto=create-drop",
+                        "spring.h2.console.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        this.reservationRepository = this.context.getBean(ReservationRepository.class);
+        // Past nights, spread over the sites so that no site is booked twice on a night;
+        // each chunk is its own transaction to keep the persistence context small
+        LocalDate start = LocalDate.of(2000, 1, 1);
+        List<Reservation> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < this.rows; i++) {
+            int reservation = i / NIGHTS_PER_RESERVATION;
+            LocalDate night = start.plusDays((long) reservation / CAMPSITES * NIGHTS_PER_RESERVATION + i % NIGHTS_PER_RESERVATION);
+            chunk.add(new Reservation(night, night.plusDays(1), "Guest " + reservation, email(reservation),
+                    resourceId(reservation), 1 + reservation % CAMPSITES));
+            if (chunk.size() == CHUNK) {
+                this.reservationRepository.saveAll(chunk);
+                chunk.clear();
+            }
+        }
+        this.reservationRepository.saveAll(chunk);
+        this.random = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public List<Reservation> findByResourceId() {
+        return this.reservationRepository.findReservationByResourceId(resourceId(this.nextReservation()));
+    }
+
+    @Benchmark
+    public List<Reservation> findByEmail() {
+        return this.reservationRepository.findReservationByEmail(email(this.nextReservation()));
+    }
+
+    private int nextReservation() {
+        return this.random.nextInt(this.rows / NIGHTS_PER_RESERVATION);
+    }
+
+    private static String resourceId(int reservation) {
+        return "resource-" + reservation;
+    }
+
+    private static String email(int reservation) {
+        return "guest-" + reservation + "@example.com";
+    }
+}
@@ -0,0 +1,116 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.upgrade.codechallenge.CodechallengeApplication;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.repository.ReservationRepository;
+import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service hot paths against an in-memory H2 database, through the same Spring
+ * context (transactions, occupancy index, admission slots) the application runs.
+ *
+ * The past year is filled with one-night reservations so that a window outside the
+ * occupancy index goes to the database, while the next 30 days are answered from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReservationServiceBenchmark {
+
+    private static final int PAST_NIGHTS = 365;
+
+    private ConfigurableApplicationContext context;
+    private ReservationService reservationService;
+    private LocalDate today;
+    private String updatedId;
+    private boolean shifted;
+    private String savedId;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        this.context = new SpringApplicationBuilder(CodechallengeApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        this.today = LocalDate.now();
+        // Past nights cannot go through the service's date rules, so they are written directly
+        List<Reservation> past = new ArrayList<>();
+        for (int i = PAST_NIGHTS; i > 0; i--) {
+            LocalDate night = this.today.minusDays(i);
+            past.add(new Reservation(night, night.plusDays(1), "Past Guest", "past@example.com", "past-" + i));
+        }
+        this.context.getBean(ReservationRepository.class).saveAll(past);
+        this.reservationService = this.context.getBean(ReservationService.class);
+        this.updatedId = (String) this.reservationService.saveReservation(new Reservation(
+                this.today.plusDays(20), this.today.plusDays(22), "Juan Perez", "jp@example.com")).getContent();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        this.context.close();
+    }
+
+    // The camp holds a single booking per night, so each saved reservation is removed
+    // before the next invocation. A save is a database transaction, slow enough for the
+    // per-invocation fixture overhead not to show in the measurement.
+    @TearDown(Level.Invocation)
+    public void deleteSaved() {
+        if (this.savedId != null) {
+            this.reservationService.deleteReservation(this.savedId);
+            this.savedId = null;
+        }
+    }
+
+    @Benchmark
+    public Response saveReservation() {
+        Response response = this.reservationService.saveReservation(new Reservation(
+                this.today.plusDays(10), this.today.plusDays(13), "Agustin Chirichigno", "ac@example.com"));
+        this.savedId = (String) response.getContent();
+        return response;
+    }
+
+    @Benchmark
+    public Response getReservationsFromIndex() {
+        return this.reservationService.getReservations(this.today, this.today.plusDays(30));
+    }
+
+    @Benchmark
+    public Response getReservationsFromDatabase() {
+        return this.reservationService.getReservations(this.today.minusDays(PAST_NIGHTS), this.today.minusDays(PAST_NIGHTS - 30));
+    }
+
+    // Moves the reservation back and forth by one night: one night deleted, one inserted
+    @Benchmark
+    public Response updateReservation() {
+        this.shifted = !this.shifted;
+        int offset = this.shifted ? 21 : 20;
+        return this.reservationService.updateReservation(this.updatedId, new Reservation(
+                this.today.plusDays(offset), this.today.plusDays(offset + 2), null, null));
+    }
+}
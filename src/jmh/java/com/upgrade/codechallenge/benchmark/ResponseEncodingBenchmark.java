@@ -0,0 +1,47 @@
+package com.upgrade.codechallenge.benchmark;
+
+import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.ResponseEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+
+// The whole Response encoding done by ReservationController, in each wire format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResponseEncodingBenchmark {
+
+    @Param({"1", "30"})
+    private int nights;
+
+    @Param({"JSON", "PRETTY_JSON", "CBOR"})
+    private ResponseEncoder.Format format;
+
+    private final ResponseEncoder encoder = new ResponseEncoder();
+    private Response response;
+
+    @Setup
+    public void setup() {
+        this.response = new Response(null, Listings.nights(this.nights), HttpStatus.OK);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return this.encoder.encode(this.response, this.format);
+    }
+}
@@ -0,0 +1,97 @@
+package com.upgrade.codechallenge.async;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs controller work off the servlet threads when reservation.async.enabled is set.
+ * The pool and its queue are bounded; once both are full, work is refused right away
+ * instead of piling up behind slow transactions. With async disabled every task runs
+ * on the calling thread.
+ */
+@Component
+public class ReservationExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+    private Counter rejected;
+    private Timer queueWait;
+
+    @Autowired
+    public ReservationExecutor(@Value("${reservation.async.enabled:false}") boolean enabled,
+                               @Value("${reservation.async.threads:16}") int threads,
+                               @Value("${reservation.async.queue-capacity:200}") int queueCapacity,
+                               MeterRegistry registry) {
+        if (!enabled) {
+            this.executor = null;
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "reservation-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Gauge.builder("reservation.executor.active", this.executor, ThreadPoolExecutor::getActiveCount)
+                .register(registry);
+        Gauge.builder("reservation.executor.queued", this.executor, e -> e.getQueue().size())
+                .register(registry);
+        this.rejected = Counter.builder("reservation.executor.rejected").register(registry);
+        this.queueWait = Timer.builder("reservation.executor.queue.wait").register(registry);
+    }
+
+    // Work runs on the calling thread
+    public static ReservationExecutor direct() {
+        return new ReservationExecutor(false, 0, 0, null);
+    }
+
+    // whenSaturated answers on the calling thread when neither a worker nor a queue slot is free
+    public <T> CompletableFuture<T> submit(Supplier<T> task, Supplier<T> whenSaturated) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (this.executor == null) {
+            run(task, future);
+            return future;
+        }
+        long queuedAt = System.nanoTime();
+        try {
+            this.executor.execute(() -> {
+                this.queueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                run(task, future);
+            });
+        } catch (RejectedExecutionException e) {
+            this.rejected.increment();
+            return CompletableFuture.completedFuture(whenSaturated.get());
+        }
+        return future;
+    }
+
+    @Override
+    public void destroy() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    private static <T> void run(Supplier<T> task, CompletableFuture<T> future) {
+        try {
+            future.complete(task.get());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
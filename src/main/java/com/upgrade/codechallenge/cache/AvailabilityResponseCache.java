@@ -0,0 +1,95 @@
+package com.upgrade.codechallenge.cache;
+
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.util.ResponseEncoder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded GET /reservation bodies keyed by (arrival, departure, format). A committed
+ * write drops only the windows that contain one of the changed nights.
+ */
+@Component
+public class AvailabilityResponseCache {
+
+    static final int MAX_ENTRIES = 256;
+
+    private final Map<Key, byte[]> entries = new ConcurrentHashMap<>();
+
+    // Bumped on every invalidation, so a body rendered from data read before a write
+    // committed is never stored after that write's invalidation ran
+    private final AtomicLong generation = new AtomicLong();
+
+    public long generation() {
+        return this.generation.get();
+    }
+
+    public byte[] get(LocalDate arrivalDate, LocalDate departureDate, ResponseEncoder.Format format) {
+        return this.entries.get(new Key(arrivalDate, departureDate, format));
+    }
+
+    // readGeneration is the value of generation() taken before the data was read
+    public void put(LocalDate arrivalDate, LocalDate departureDate, ResponseEncoder.Format format,
+                    byte[] body, long readGeneration) {
+        if (this.generation.get() != readGeneration) {
+            return;
+        }
+        if (this.entries.size() >= MAX_ENTRIES) {
+            // Reads concentrate on a few windows; starting over is cheaper than tracking recency
+            this.entries.clear();
+        }
+        Key key = new Key(arrivalDate, departureDate, format);
+        this.entries.put(key, body);
+        if (this.generation.get() != readGeneration) {
+            this.entries.remove(key, body);
+        }
+    }
+
+    // Runs before DataVersions moves the tags, so a new tag is never paired with an old body
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        this.generation.incrementAndGet();
+        this.entries.keySet().removeIf(key -> event.overlaps(key.arrivalDate, key.departureDate));
+    }
+
+    public void clear() {
+        this.generation.incrementAndGet();
+        this.entries.clear();
+    }
+
+    private static final class Key {
+        private final LocalDate arrivalDate;
+        private final LocalDate departureDate;
+        private final ResponseEncoder.Format format;
+
+        Key(LocalDate arrivalDate, LocalDate departureDate, ResponseEncoder.Format format) {
+            this.arrivalDate = arrivalDate;
+            this.departureDate = departureDate;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return arrivalDate.equals(key.arrivalDate)
+                    && departureDate.equals(key.departureDate)
+                    && format == key.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(arrivalDate, departureDate, format);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.upgrade.codechallenge.cache;
+
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.model.Reservation;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic counters bumped after every committed write, used to build ETags.
+ * Days are kept in a ring and reservations in hashed buckets, so two days or two
+ * reservations may share a counter: a write can then change an unrelated tag, but
+ * a tag never stays the same across a write it covers.
+ */
+@Component
+public class DataVersions {
+
+    static final int DAY_SLOTS = 128;
+    static final int RESOURCE_BUCKETS = 4096;
+
+    private final AtomicLongArray days = new AtomicLongArray(DAY_SLOTS);
+    private final AtomicLongArray resources = new AtomicLongArray(RESOURCE_BUCKETS);
+
+    // Bumped when the changed nights are not known; part of every tag
+    private final AtomicLong epoch = new AtomicLong();
+
+    // Counters start over on restart, the boot id keeps old tags from matching
+    private final long bootId = System.currentTimeMillis();
+
+    // Runs after the response caches have dropped what the write changed, and
+    // before long-polling clients are woken up
+    @EventListener
+    @Order(Ordered.LOWEST_PRECEDENCE - 1)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        if (event.getResourceId() != null) {
+            this.resources.incrementAndGet(bucket(event.getResourceId()));
+        }
+        if (event.getFrom() == null || event.getTo() == null
+                || event.getTo().toEpochDay() - event.getFrom().toEpochDay() >= DAY_SLOTS) {
+            this.epoch.incrementAndGet();
+            return;
+        }
+        for (long day = event.getFrom().toEpochDay(); day < event.getTo().toEpochDay(); day++) {
+            this.days.incrementAndGet(slot(day));
+        }
+    }
+
+    // Tag of the nights listed by GET /reservation for [arrivalDate, departureDate]
+    public String windowTag(LocalDate arrivalDate, LocalDate departureDate, String variant) {
+        long from = arrivalDate.toEpochDay();
+        long to = departureDate.toEpochDay();
+        long version = 0;
+        if (to - from > DAY_SLOTS) {
+            // Every slot is in the window at least once
+            for (int slot = 0; slot < DAY_SLOTS; slot++) {
+                version += this.days.get(slot);
+            }
+        } else {
+            for (long day = from; day < to; day++) {
+                version += this.days.get(slot(day));
+            }
+        }
+        return this.tag("w" + version, variant);
+    }
+
+    public String resourceTag(String resourceId, String variant) {
+        return this.tag("r" + this.resources.get(bucket(resourceId)), variant);
+    }
+
+    // Tag of a reservation read with the given nights: it also carries their row
+    // version, which If-Match on PATCH and DELETE hands back
+    @SuppressWarnings("unchecked")
+    public static String withVersion(String tag, Object nights) {
+        if (!(nights instanceof List) || ((List<?>) nights).isEmpty() || !(((List<?>) nights).get(0) instanceof Reservation)) {
+            return tag;
+        }
+        return tag.substring(0, tag.length() - 1) + "-v" + Reservation.versionOf((List<Reservation>) nights) + "\"";
+    }
+
+    // Whether an If-None-Match candidate names the current data: the row version
+    // a reservation tag carries cannot have changed while the tag itself did not
+    public static boolean matches(String candidate, String tag) {
+        return candidate.equals(tag)
+                || (candidate.startsWith(tag.substring(0, tag.length() - 1) + "-v") && candidate.endsWith("\""));
+    }
+
+    // Row version named by an If-Match header. Null when there is no header or it is "*",
+    // -1 when no tag in it carries a version, which no reservation ever matches.
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null) {
+            return null;
+        }
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return null;
+            }
+            int start = candidate.lastIndexOf("-v");
+            if (start < 0 || !candidate.endsWith("\"") || candidate.length() - start < 4) {
+                continue;
+            }
+            try {
+                return Long.parseLong(candidate.substring(start + 2, candidate.length() - 1));
+            } catch (NumberFormatException e) {
+                // Not one of our tags
+            }
+        }
+        return -1L;
+    }
+
+    private String tag(String version, String variant) {
+        return "\"" + Long.toHexString(this.bootId) + "-" + this.epoch.get() + "-" + version + "-" + variant + "\"";
+    }
+
+    private static int slot(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) DAY_SLOTS);
+    }
+
+    private static int bucket(String resourceId) {
+        return Math.floorMod(resourceId.hashCode(), RESOURCE_BUCKETS);
+    }
+}
@@ -0,0 +1,159 @@
+package com.upgrade.codechallenge.cache;
+
+import com.upgrade.codechallenge.util.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Results of writes sent with an Idempotency-Key header. A retry with the same key is
+ * answered with the stored result, and a request arriving while the first one still
+ * runs waits for that same execution. Results are kept for the ttl and at most
+ * maxEntries keys are held; server errors are not kept, so they can be retried.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+    static final int MAX_KEY_LENGTH = 255;
+
+    private static final class Entry {
+        private final String key;
+        private final String fingerprint;
+        private final CompletableFuture<Response> result;
+        // Set once the result is known
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private Entry(String key, String fingerprint, CompletableFuture<Response> result) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.result = result;
+        }
+    }
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Clock clock;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in the order they were stored; with a single ttl that is also the order they
+    // expire in. Entries already gone from the map are skipped when they reach the head.
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Autowired
+    public IdempotencyStore(@Value("${reservation.idempotency.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${reservation.idempotency.max-entries:10000}") int maxEntries) {
+        this(Duration.ofSeconds(ttlSeconds), maxEntries, Clock.systemUTC());
+    }
+
+    public IdempotencyStore(Duration ttl, int maxEntries, Clock clock) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    // Request identity compared between uses of the same key
+    public static String fingerprint(Object... parts) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (Object part : parts) {
+            fingerprint.append(String.valueOf(part)).append('\u0000');
+        }
+        return fingerprint.toString();
+    }
+
+    // Null when the key can be used, otherwise the error to answer with
+    public static Response validateKey(String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return new Response("The " + HEADER + " header must hold between 1 and " + MAX_KEY_LENGTH + " characters.", null, HttpStatus.BAD_REQUEST);
+        }
+        return null;
+    }
+
+    // Runs work once per key; later calls with the key get the same result
+    public CompletableFuture<Response> execute(String key, String fingerprint,
+                                               Supplier<CompletableFuture<Response>> work) {
+        long now = this.clock.millis();
+        this.expire(now);
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Entry entry = new Entry(key, fingerprint, result);
+        while (true) {
+            Entry current = this.entries.putIfAbsent(key, entry);
+            if (current == null) {
+                break;
+            }
+            if (current.expiresAt > now) {
+                if (!current.fingerprint.equals(fingerprint)) {
+                    return CompletableFuture.completedFuture(new Response(
+                            "The " + HEADER + " was already used for a different request.", null, HttpStatus.UNPROCESSABLE_ENTITY));
+                }
+                return current.result;
+            }
+            this.entries.remove(key, current);
+        }
+        this.order.add(entry);
+        this.size.incrementAndGet();
+        this.evict();
+        CompletableFuture<Response> execution;
+        try {
+            execution = work.get();
+        } catch (Throwable e) {
+            execution = new CompletableFuture<>();
+            execution.completeExceptionally(e);
+        }
+        execution.whenComplete((response, error) -> {
+            if (error != null || response.getCode().is5xxServerError()) {
+                this.entries.remove(key, entry);
+            } else {
+                entry.expiresAt = this.clock.millis() + this.ttlMillis;
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    // Drops expired entries from the head of the queue
+    private void expire(long now) {
+        Entry entry;
+        while ((entry = this.order.peek()) != null) {
+            if (entry.expiresAt > now && this.entries.get(entry.key) == entry) {
+                return;
+            }
+            if (this.order.remove(entry)) {
+                this.size.decrementAndGet();
+                this.entries.remove(entry.key, entry);
+            }
+        }
+    }
+
+    // Drops the oldest entries once more than maxEntries are queued
+    private void evict() {
+        while (this.size.get() > this.maxEntries) {
+            Entry entry = this.order.poll();
+            if (entry == null) {
+                return;
+            }
+            this.size.decrementAndGet();
+            this.entries.remove(entry.key, entry);
+        }
+    }
+}
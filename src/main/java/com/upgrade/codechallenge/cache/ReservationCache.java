@@ -0,0 +1,118 @@
+package com.upgrade.codechallenge.cache;
+
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.model.Reservation;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nights of a reservation by resourceId, filled on read and dropped as soon as a
+ * write to that reservation commits. Least recently used entries are evicted once
+ * maxSize reservations are held. Hits, misses, evictions and size are published
+ * as reservation.cache.* meters.
+ */
+@Component
+public class ReservationCache implements MeterBinder {
+
+    private final int maxSize;
+    private final Map<String, List<Reservation>> entries;
+
+    // Bumped on every invalidation, so nights read before a write committed are never stored after it
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ReservationCache(@Value("${reservation.cache.max-size:10000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, List<Reservation>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Reservation>> eldest) {
+                if (size() > ReservationCache.this.maxSize) {
+                    ReservationCache.this.evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("reservation.cache.hits", this, ReservationCache::getHitCount).register(registry);
+        FunctionCounter.builder("reservation.cache.misses", this, ReservationCache::getMissCount).register(registry);
+        FunctionCounter.builder("reservation.cache.evictions", this, ReservationCache::getEvictionCount).register(registry);
+        Gauge.builder("reservation.cache.size", this, ReservationCache::size).register(registry);
+    }
+
+    public long generation() {
+        return this.generation.get();
+    }
+
+    public List<Reservation> get(String resourceId) {
+        List<Reservation> reservations;
+        // An access-ordered map is modified by get, so reads take the lock too
+        synchronized (this.entries) {
+            reservations = this.entries.get(resourceId);
+        }
+        if (reservations == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return reservations;
+    }
+
+    // readGeneration is the value of generation() taken before the nights were read
+    public void put(String resourceId, List<Reservation> reservations, long readGeneration) {
+        List<Reservation> copy = Collections.unmodifiableList(new ArrayList<>(reservations));
+        synchronized (this.entries) {
+            if (this.generation.get() == readGeneration) {
+                this.entries.put(resourceId, copy);
+            }
+        }
+    }
+
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        synchronized (this.entries) {
+            this.generation.incrementAndGet();
+            this.entries.remove(event.getResourceId());
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+}
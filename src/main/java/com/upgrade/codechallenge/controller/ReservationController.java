@@ -1,10 +1,15 @@
 package com.upgrade.codechallenge.controller;
 
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.upgrade.codechallenge.async.ReservationExecutor;
+import com.upgrade.codechallenge.cache.AvailabilityResponseCache;
+import com.upgrade.codechallenge.cache.DataVersions;
+import com.upgrade.codechallenge.cache.IdempotencyStore;
 import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.ratelimit.RateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -13,114 +18,402 @@ import org.springframework.web.bind.annotation.*;
 import com.upgrade.codechallenge.model.Reservation;
 import com.upgrade.codechallenge.service.ReservationService;
 import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.ResponseEncoder;
+import com.upgrade.codechallenge.util.ReservationStreamWriter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
+// The reactive profile serves the same routes from com.upgrade.codechallenge.reactive
 @RestController
+@Profile("!reactive")
 public class ReservationController {
 
-    private Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .excludeFieldsWithoutExposeAnnotation()
-            .serializeNulls()
-            .create();
+    private ResponseEncoder encoder = new ResponseEncoder();
 
     @Autowired
     private ReservationService reservationService;
 
-    public ReservationController(ReservationService reservationService) {
+    @Autowired
+    private AvailabilityResponseCache availabilityCache;
+
+    @Autowired
+    private DataVersions dataVersions;
+
+    @Autowired
+    private ReservationExecutor executor;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    public ReservationController(ReservationService reservationService,
+                                 AvailabilityResponseCache availabilityCache,
+                                 DataVersions dataVersions,
+                                 ReservationExecutor executor,
+                                 IdempotencyStore idempotencyStore,
+                                 RateLimiter rateLimiter) {
         this.reservationService = reservationService;
+        this.availabilityCache = availabilityCache;
+        this.dataVersions = dataVersions;
+        this.executor = executor;
+        this.idempotencyStore = idempotencyStore;
+        this.rateLimiter = rateLimiter;
     }
 
     // POST
     @RequestMapping(value = "/reservation", method = RequestMethod.POST,
-            produces = "application/json; charset=utf-8",
+            produces = {"application/json; charset=utf-8", "application/cbor"},
             consumes = "application/json; charset=utf-8")
     public @ResponseBody
-    ResponseEntity<String> reservation(@RequestBody Reservation reservation) {
-        Response response;
-        try {
-            response = this.reservationService.saveReservation(reservation);
-        } catch(OccupiedDateRangeException e) {
-            response = new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
-        }
-        return ResponseEntity.status(response.getCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(this.gson.toJson(response));
+    CompletableFuture<ResponseEntity<byte[]>> reservation(@RequestBody Reservation reservation, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> limited = this.throttle(request, format, reservation.getEmail());
+        if(limited != null) return CompletableFuture.completedFuture(limited);
+        String fingerprint = IdempotencyStore.fingerprint("POST /reservation", reservation.getArrivalDate(),
+                reservation.getDepartureDate(), reservation.getName(), reservation.getEmail(), reservation.getCampsite());
+        return this.submit(request, fingerprint, format, () -> {
+            try {
+                return this.reservationService.saveReservation(reservation);
+            } catch(OccupiedDateRangeException e) {
+                return new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    // POST /reservation/batch
+    @RequestMapping(value = "/reservation/batch", method = RequestMethod.POST,
+            produces = {"application/json; charset=utf-8", "application/cbor"},
+            consumes = "application/json; charset=utf-8")
+    public @ResponseBody
+    CompletableFuture<ResponseEntity<byte[]>> reservations(@RequestBody List<Reservation> reservations, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> limited = this.throttle(request, format,
+                reservations.stream().map(Reservation::getEmail).distinct().toArray(String[]::new));
+        if(limited != null) return CompletableFuture.completedFuture(limited);
+        return this.submit(format, () -> {
+            Response response;
+            try {
+                response = this.reservationService.saveReservations(reservations);
+            } catch(OccupiedDateRangeException e) {
+                response = new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+            }
+            return this.render(response, format);
+        });
+    }
+
+    // POST /reservation/hold - params(minutes)
+    @RequestMapping(value = "/reservation/hold", method = RequestMethod.POST,
+            produces = {"application/json; charset=utf-8", "application/cbor"},
+            consumes = "application/json; charset=utf-8")
+    public @ResponseBody
+    CompletableFuture<ResponseEntity<byte[]>> holdReservation(@RequestBody Reservation reservation,
+                                                              @RequestParam(value="minutes", required=false) Integer minutes,
+                                                              HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> limited = this.throttle(request, format, reservation.getEmail());
+        if(limited != null) return CompletableFuture.completedFuture(limited);
+        int holdMinutes = (minutes != null)? minutes : ReservationService.DEFAULT_HOLD_MINUTES;
+        return this.submit(format, () -> {
+            Response response;
+            try {
+                response = this.reservationService.holdReservation(reservation, holdMinutes);
+            } catch(OccupiedDateRangeException e) {
+                response = new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+            }
+            return this.render(response, format);
+        });
+    }
+
+    // POST /reservation/hold/{id}/confirm
+    @RequestMapping(value = "/reservation/hold/{id}/confirm", method = RequestMethod.POST,
+            produces = {"application/json; charset=utf-8", "application/cbor"},
+            consumes = "application/json; charset=utf-8")
+    public @ResponseBody
+    CompletableFuture<ResponseEntity<byte[]>> confirmHold(@PathVariable String id, @RequestBody Reservation guest,
+                                                          HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> limited = this.throttle(request, format, guest.getEmail());
+        if(limited != null) return CompletableFuture.completedFuture(limited);
+        return this.submit(format, () -> {
+            Response response;
+            try {
+                response = this.reservationService.confirmHold(id, guest);
+            } catch(OccupiedDateRangeException e) {
+                response = new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+            }
+            return this.render(response, format);
+        });
+    }
+
+    // DELETE /reservation/hold/{id}
+    @RequestMapping(value = "/reservation/hold/{id}", method = RequestMethod.DELETE,
+            produces = {"application/json; charset=utf-8", "application/cbor"})
+    public @ResponseBody
+    CompletableFuture<ResponseEntity<byte[]>> releaseHold(@PathVariable String id, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return CompletableFuture.completedFuture(this.render(this.reservationService.releaseHold(id), format));
+    }
+
+    // POST /reservation/waitlist
+    @RequestMapping(value = "/reservation/waitlist", method = RequestMethod.POST,
+            produces = {"application/json; charset=utf-8", "application/cbor"},
+            consumes = "application/json; charset=utf-8")
+    public @ResponseBody
+    ResponseEntity<byte[]> joinWaitlist(@RequestBody Reservation reservation, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> limited = this.throttle(request, format, reservation.getEmail());
+        if(limited != null) return limited;
+        return this.render(this.reservationService.joinWaitlist(reservation), format);
+    }
+
+    // GET /reservation/waitlist/{id}
+    @RequestMapping(value = "/reservation/waitlist/{id}", method = RequestMethod.GET,
+            produces = {"application/json; charset=utf-8", "application/cbor"})
+    public @ResponseBody
+    ResponseEntity<byte[]> getWaitlistEntry(@PathVariable String id, HttpServletRequest request) {
+        return this.render(this.reservationService.getWaitlistEntry(id), this.negotiate(request));
+    }
+
+    // DELETE /reservation/waitlist/{id}
+    @RequestMapping(value = "/reservation/waitlist/{id}", method = RequestMethod.DELETE,
+            produces = {"application/json; charset=utf-8", "application/cbor"})
+    public @ResponseBody
+    ResponseEntity<byte[]> leaveWaitlist(@PathVariable String id, HttpServletRequest request) {
+        return this.render(this.reservationService.leaveWaitlist(id), this.negotiate(request));
     }
 
     // GET
     @RequestMapping(value = "/reservation", method = RequestMethod.GET,
-            produces = "application/json; charset=utf-8")
+            produces = {"application/json; charset=utf-8", "application/cbor"})
     public @ResponseBody
-    ResponseEntity<String> getReservations(@RequestParam(value="arrival", required=false) String arrival,
-                                           @RequestParam(value="departure", required=false) String departure) {
+    CompletableFuture<ResponseEntity<byte[]>> getReservations(@RequestParam(value="arrival", required=false) String arrival,
+                                                              @RequestParam(value="departure", required=false) String departure,
+                                                              HttpServletRequest request) {
         LocalDate arrivalDate = (arrival != null)? LocalDate.parse(arrival) : null;
         LocalDate departureDate = (departure!=null)? LocalDate.parse(departure) : null;
-        Response response = this.reservationService.getReservations(arrivalDate, departureDate);
+        ResponseEncoder.Format format = this.negotiate(request);
+        if(arrivalDate == null) {
+            return CompletableFuture.completedFuture(
+                    this.render(this.reservationService.getReservations(null, departureDate), format));
+        }
+        LocalDate windowEnd = (departureDate != null)? departureDate : arrivalDate.plusDays(ReservationService.DEFAULT_WINDOW_DAYS);
+        if(arrivalDate.isAfter(windowEnd)) {
+            return CompletableFuture.completedFuture(
+                    this.render(this.reservationService.getReservations(arrivalDate, departureDate), format));
+        }
+        // The tag is taken before any data is read, so it is never newer than the body
+        String etag = this.dataVersions.windowTag(arrivalDate, windowEnd, format.name());
+        if(notModified(request, etag) != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build());
+        }
+        // Cached windows are answered on the request thread, only misses go to the executor
+        byte[] cached = this.availabilityCache.get(arrivalDate, windowEnd, format);
+        if(cached != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok()
+                    .eTag(etag)
+                    .contentType(this.encoder.contentType(format))
+                    .body(cached));
+        }
+        return this.submit(format, () -> {
+            long generation = this.availabilityCache.generation();
+            Response response = this.reservationService.getReservations(arrivalDate, departureDate);
+            if(response.getCode() != HttpStatus.OK) {
+                return this.render(response, format);
+            }
+            byte[] body = this.encoder.encode(response, format);
+            this.availabilityCache.put(arrivalDate, windowEnd, format, body, generation);
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .contentType(this.encoder.contentType(format))
+                    .body(body);
+        });
+    }
+
+    // GET /reservation - params(stream)
+    @RequestMapping(value = "/reservation", method = RequestMethod.GET, params = "stream=true",
+            produces = "application/json; charset=utf-8")
+    public void streamReservations(@RequestParam(value="arrival", required=false) String arrival,
+                                   @RequestParam(value="departure", required=false) String departure,
+                                   HttpServletResponse httpResponse) throws IOException {
+        LocalDate arrivalDate = (arrival != null)? LocalDate.parse(arrival) : null;
+        LocalDate departureDate = (departure!=null)? LocalDate.parse(departure) : null;
+        ReservationStreamWriter writer = new ReservationStreamWriter(httpResponse);
+        Response response = this.reservationService.streamReservations(arrivalDate, departureDate, writer);
+        if (response.getError() != null) {
+            httpResponse.setStatus(response.getCode().value());
+            httpResponse.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            httpResponse.getOutputStream().write(this.encoder.toJson(response).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        writer.finish();
+    }
 
-        return ResponseEntity.status(response.getCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(this.gson.toJson(response));
+    // GET /reservation - params(email)
+    @RequestMapping(value = "/reservation", method = RequestMethod.GET, params = "email",
+            produces = {"application/json; charset=utf-8", "application/cbor"})
+    public @ResponseBody
+    CompletableFuture<ResponseEntity<byte[]>> getReservationsByEmail(@RequestParam(value="email") String email, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return this.submit(format, () -> this.render(this.reservationService.getReservationsByEmail(email), format));
     }
 
     // GET
     @RequestMapping(value = "/reservation/{id}", method = RequestMethod.GET,
-            produces = "application/json; charset=utf-8")
+            produces = {"application/json; charset=utf-8", "application/cbor"})
     public @ResponseBody
-    ResponseEntity<String> getReservation(@PathVariable(value="id", required=false) String resourceId) {
-        ResponseEntity<String> idError = this.validateId(resourceId);
-        if(idError != null) return idError;
-        Response response = this.reservationService.getReservation(resourceId);
-        return ResponseEntity.status(response.getCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(this.gson.toJson(response));
+    CompletableFuture<ResponseEntity<byte[]>> getReservation(@PathVariable(value="id", required=false) String resourceId,
+                                                             HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> idError = this.validateId(resourceId, format);
+        if(idError != null) return CompletableFuture.completedFuture(idError);
+        String etag = this.dataVersions.resourceTag(resourceId, format.name());
+        String current = notModified(request, etag);
+        if(current != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current).build());
+        }
+        return this.submit(format, () -> {
+            Response response = this.reservationService.getReservation(resourceId);
+            if(response.getCode() != HttpStatus.OK) {
+                return this.render(response, format);
+            }
+            return ResponseEntity.ok()
+                    .eTag(DataVersions.withVersion(etag, response.getContent()))
+                    .contentType(this.encoder.contentType(format))
+                    .body(this.encoder.encode(response, format));
+        });
     }
 
     // PATCH
     @RequestMapping(value = "/reservation/{id}", method = RequestMethod.PATCH,
-            produces = "application/json; charset=utf-8",
+            produces = {"application/json; charset=utf-8", "application/cbor"},
             consumes = "application/json; charset=utf-8")
     public @ResponseBody
-    ResponseEntity<String> updateReservation(@PathVariable String id, @RequestBody Reservation reservation) {
-        ResponseEntity<String> idError = this.validateId(id);
-        if(idError != null) return idError;
-        Response response;
-        try {
-            response = this.reservationService.updateReservation(id, reservation);
-        } catch(OccupiedDateRangeException e) {
-            response = new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
-        }
-        return ResponseEntity.status(response.getCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(gson.toJson(response));
+    CompletableFuture<ResponseEntity<byte[]>> updateReservation(@PathVariable String id, @RequestBody Reservation reservation,
+                                                                HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> idError = this.validateId(id, format);
+        if(idError != null) return CompletableFuture.completedFuture(idError);
+        Long expectedVersion = DataVersions.expectedVersion(request.getHeader(HttpHeaders.IF_MATCH));
+        String fingerprint = IdempotencyStore.fingerprint("PATCH /reservation/" + id, reservation.getArrivalDate(),
+                reservation.getDepartureDate(), reservation.getName(), reservation.getEmail(), expectedVersion);
+        return this.submit(request, fingerprint, format, () -> {
+            try {
+                return this.reservationService.updateReservation(id, reservation, expectedVersion);
+            } catch(OccupiedDateRangeException e) {
+                return new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+            }
+        });
     }
 
     // DELETE /reservation - params(reservationId)
     @RequestMapping(value = "/reservation/{id}", method = RequestMethod.DELETE,
-            produces = "application/json; charset=utf-8")
+            produces = {"application/json; charset=utf-8", "application/cbor"})
     public @ResponseBody
-    ResponseEntity<String> deleteReservation(@PathVariable String id) {
-        ResponseEntity<String> idError = this.validateId(id);
-        if(idError != null) return idError;
-        Response response;
-        try {
-            response = this.reservationService.deleteReservation(id);
-        } catch (Exception e){
-            response = new Response(e.getMessage(), null, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
-        return ResponseEntity.status(response.getCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body("");
+    CompletableFuture<ResponseEntity<byte[]>> deleteReservation(@PathVariable String id, HttpServletRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        ResponseEntity<byte[]> idError = this.validateId(id, format);
+        if(idError != null) return CompletableFuture.completedFuture(idError);
+        Long expectedVersion = DataVersions.expectedVersion(request.getHeader(HttpHeaders.IF_MATCH));
+        return this.submit(format, () -> {
+            Response response;
+            try {
+                response = this.reservationService.deleteReservation(id, expectedVersion);
+            } catch (Exception e){
+                response = new Response(e.getMessage(), null, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            return ResponseEntity.status(response.getCode())
+                    .contentType(this.encoder.contentType(format))
+                    .body(new byte[0]);
+        });
     }
 
-    private ResponseEntity<String> validateId(String id) {
+    private ResponseEntity<byte[]> validateId(String id, ResponseEncoder.Format format) {
         if (id == null) {
             Response response = new Response("You must give a valid reservation id", null, HttpStatus.BAD_REQUEST);
-            return ResponseEntity.status(response.getCode())
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(this.gson.toJson(response));
+            return this.render(response, format);
+        }
+        return null;
+    }
+
+    // Null when the client and the guests may go ahead, otherwise the 429 to answer with
+    private ResponseEntity<byte[]> throttle(HttpServletRequest request, ResponseEncoder.Format format, String... emails) {
+        long retryAfter = this.rateLimiter.admit(request.getRemoteAddr(), emails);
+        if (retryAfter == 0) {
+            return null;
+        }
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .contentType(this.encoder.contentType(format))
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                .body(this.encoder.encode(RateLimiter.tooManyRequests(), format));
+    }
+
+    // Runs the work on the reservation executor; a saturated executor gets a 503 at once
+    private CompletableFuture<ResponseEntity<byte[]>> submit(ResponseEncoder.Format format,
+                                                             Supplier<ResponseEntity<byte[]>> work) {
+        return this.executor.submit(work, () -> this.render(busy(), format));
+    }
+
+    // Same as submit, but a write sent with an Idempotency-Key runs at most once per key
+    private CompletableFuture<ResponseEntity<byte[]>> submit(HttpServletRequest request, String fingerprint,
+                                                             ResponseEncoder.Format format, Supplier<Response> work) {
+        String key = request.getHeader(IdempotencyStore.HEADER);
+        if(key == null) {
+            return this.submit(format, () -> this.render(work.get(), format));
+        }
+        Response keyError = IdempotencyStore.validateKey(key);
+        if(keyError != null) {
+            return CompletableFuture.completedFuture(this.render(keyError, format));
+        }
+        return this.idempotencyStore
+                .execute(key, fingerprint, () -> this.executor.submit(work, ReservationController::busy))
+                .thenApply(response -> this.render(response, format));
+    }
+
+    private static Response busy() {
+        return new Response("The server is busy, please try again later.", null, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // The tag to answer a 304 with, null when If-None-Match names no current data
+    private static String notModified(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*")) {
+                return etag;
+            }
+            if (DataVersions.matches(candidate, etag)) {
+                return candidate;
+            }
         }
         return null;
     }
+
+    private ResponseEncoder.Format negotiate(HttpServletRequest request) {
+        return this.encoder.negotiate(request.getHeader(HttpHeaders.ACCEPT), request.getParameter("pretty"));
+    }
+
+    // Compact JSON unless the client asked for pretty JSON or CBOR
+    private ResponseEntity<byte[]> render(Response response, ResponseEncoder.Format format) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.getCode())
+                .contentType(this.encoder.contentType(format));
+        if(response.getCode() == HttpStatus.SERVICE_UNAVAILABLE) {
+            builder.header(HttpHeaders.RETRY_AFTER, "1");
+        }
+        return builder.body(this.encoder.encode(response, format));
+    }
 }
@@ -0,0 +1,32 @@
+package com.upgrade.codechallenge.event;
+
+import java.time.LocalDate;
+
+/**
+ * Published when a hold gives its nights in [from, to) back without turning into a
+ * reservation: it ran out, was released, or its confirmation was refused.
+ */
+public class HoldReleasedEvent {
+
+    private final String holdId;
+    private final LocalDate from;
+    private final LocalDate to;
+
+    public HoldReleasedEvent(String holdId, LocalDate from, LocalDate to) {
+        this.holdId = holdId;
+        this.from = from;
+        this.to = to;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+}
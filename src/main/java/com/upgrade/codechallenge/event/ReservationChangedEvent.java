@@ -0,0 +1,55 @@
+package com.upgrade.codechallenge.event;
+
+import com.upgrade.codechallenge.model.Reservation;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Published after a reservation write commits. The nights in [from, to) were added,
+ * moved or released for resourceId. A null range means the nights are not known and
+ * every window has to be treated as changed.
+ */
+public class ReservationChangedEvent {
+
+    private final String resourceId;
+    private final LocalDate from;
+    private final LocalDate to;
+
+    public ReservationChangedEvent(String resourceId, LocalDate from, LocalDate to) {
+        this.resourceId = resourceId;
+        this.from = from;
+        this.to = to;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    // Covers the nights of the given rows, or every night when there are none
+    public static ReservationChangedEvent of(String resourceId, List<Reservation> nights) {
+        LocalDate from = null;
+        LocalDate to = null;
+        for (Reservation night : nights) {
+            if (from == null || night.getArrivalDate().isBefore(from)) from = night.getArrivalDate();
+            if (to == null || night.getDepartureDate().isAfter(to)) to = night.getDepartureDate();
+        }
+        return new ReservationChangedEvent(resourceId, from, to);
+    }
+
+    // Whether any changed night falls inside the window [arrivalDate, departureDate]
+    public boolean overlaps(LocalDate arrivalDate, LocalDate departureDate) {
+        if (this.from == null || this.to == null) {
+            return true;
+        }
+        return arrivalDate.isBefore(this.to) && this.from.isBefore(departureDate);
+    }
+}
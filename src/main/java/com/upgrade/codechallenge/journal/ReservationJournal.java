@@ -0,0 +1,440 @@
+package com.upgrade.codechallenge.journal;
+
+import com.upgrade.codechallenge.exception.InternalServerErrorException;
+import com.upgrade.codechallenge.model.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of reservation commands (create, move, cancel) kept in a
+ * memory-mapped file. Commands are appended just before their transaction commits and
+ * the caller waits until they are on disk; a single flusher thread forces the file for
+ * everything appended since its last force, so concurrent writers share one sync.
+ * Every command carries the id of its transaction, and a transaction that rolls back
+ * after its commands were synced appends an abort record; recovery skips the commands
+ * of aborted transactions.
+ * A failed sync fails the callers waiting on it and is retried for the ones after;
+ * health is down until a sync succeeds again.
+ * On startup the log is folded into the reservations it describes and the ones it
+ * cancelled, which the service reconciles the database with, and rewritten with one
+ * create per live reservation. Cancellations are kept through one more compaction,
+ * so a restart before the database caught up still sees them.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.journal.enabled", havingValue = "true")
+public class ReservationJournal implements DisposableBean, HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationJournal.class);
+
+    private static final byte CREATE = 1;
+    private static final byte MOVE = 2;
+    private static final byte CANCEL = 3;
+    private static final byte ABORT = 4;
+
+    // Length and checksum in front of every record
+    private static final int HEADER = 8;
+
+    // Transaction of the records written by compaction
+    private static final long COMPACTED = 0;
+
+    private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final Path path;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private final Object appendLock = new Object();
+    // Transaction ids restart with every run, as the log is compacted at startup
+    private final AtomicLong transactions = new AtomicLong();
+
+    // End of the appended records, end of the ones on disk and end of the ones a
+    // failed sync left behind; guarded by flushLock
+    private final Object flushLock = new Object();
+    private long written;
+    private long durable;
+    private long failed;
+    private volatile RuntimeException failure;
+    private boolean running = true;
+    private final Thread flusher;
+
+    private List<Reservation> recovered;
+    private Set<String> recoveredCancellations;
+
+    @Autowired
+    public ReservationJournal(@Value("${reservation.journal.path:data/reservations.journal}") String path,
+                              @Value("${reservation.journal.initial-size-kb:1024}") int initialSizeKb) throws IOException {
+        this(Paths.get(path), initialSizeKb * 1024L);
+    }
+
+    public ReservationJournal(Path path, long initialSize) throws IOException {
+        this.path = path;
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        Map<String, Reservation> live = new LinkedHashMap<>();
+        Set<String> cancelled = new LinkedHashSet<>();
+        Set<String> carried = new LinkedHashSet<>();
+        if (Files.exists(path)) {
+            read(path, live, cancelled, carried);
+        }
+        this.recovered = new ArrayList<>(live.values());
+        this.recoveredCancellations = cancelled;
+        long end = this.compact(live.values(), carried);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialSize, end * 2));
+        this.buffer.position((int) end);
+        this.written = end;
+        this.durable = end;
+        this.flusher = new Thread(this::flush, "reservation-journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        logger.info("Recovered {} reservations and {} cancellations from {}", live.size(), cancelled.size(), path);
+    }
+
+    // Reservations read back at startup, whole ranges with their resource id; handed out once
+    public synchronized List<Reservation> recovered() {
+        List<Reservation> reservations = this.recovered;
+        this.recovered = Collections.emptyList();
+        return reservations;
+    }
+
+    // Resource ids the log last cancelled; handed out once
+    public synchronized Set<String> recoveredCancellations() {
+        Set<String> cancelled = this.recoveredCancellations;
+        this.recoveredCancellations = Collections.emptySet();
+        return cancelled;
+    }
+
+    // Id to write the commands of one transaction under, and to abort them with
+    public long begin() {
+        return this.transactions.incrementAndGet();
+    }
+
+    // Each of these returns once the command is on disk
+    public void created(long transaction, Collection<Reservation> reservations) {
+        long end = 0;
+        for (Reservation reservation : reservations) {
+            end = this.append(encode(CREATE, transaction, reservation.getResourceId(), reservation));
+        }
+        this.await(end);
+    }
+
+    public void moved(long transaction, String resourceId, LocalDate arrivalDate, LocalDate departureDate) {
+        this.await(this.append(encode(MOVE, transaction, resourceId, new Reservation(arrivalDate, departureDate, null, null))));
+    }
+
+    public void cancelled(long transaction, String resourceId) {
+        this.await(this.append(encode(CANCEL, transaction, resourceId, null)));
+    }
+
+    // For a transaction that rolled back, whether or not its commands reached the disk;
+    // a failure is logged, as there is no request left to fail
+    public void aborted(long transaction) {
+        try {
+            this.await(this.append(encode(ABORT, transaction, "", null)));
+        } catch (RuntimeException e) {
+            logger.error("Could not abort transaction {} in the reservation journal", transaction, e);
+        }
+    }
+
+    @Override
+    public Health health() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            return Health.down(failure).withDetail("path", this.path.toString()).build();
+        }
+        return Health.up().withDetail("path", this.path.toString()).build();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        synchronized (this.flushLock) {
+            this.running = false;
+            this.flushLock.notifyAll();
+        }
+        this.flusher.join();
+        this.channel.close();
+    }
+
+    // Returns the end of the record in the file
+    private long append(byte[] payload) {
+        long end;
+        synchronized (this.appendLock) {
+            if (this.buffer.remaining() < HEADER + payload.length) {
+                this.grow(HEADER + payload.length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            this.buffer.putInt(payload.length);
+            this.buffer.putInt((int) crc.getValue());
+            this.buffer.put(payload);
+            end = this.buffer.position();
+        }
+        synchronized (this.flushLock) {
+            // Records are written in order under appendLock, so all of them up to end are in
+            this.written = Math.max(this.written, end);
+            this.flushLock.notifyAll();
+        }
+        return end;
+    }
+
+    private void await(long end) {
+        synchronized (this.flushLock) {
+            while (this.durable < end) {
+                if (end <= this.failed) {
+                    throw new InternalServerErrorException("There is an internal problem in the server.");
+                }
+                try {
+                    this.flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalServerErrorException("There is an internal problem in the server.");
+                }
+            }
+        }
+    }
+
+    // Forces everything appended since the last pass in one go; after a failure the
+    // callers waiting are failed and the next pass, a little later, tries again
+    private void flush() {
+        while (true) {
+            long target;
+            synchronized (this.flushLock) {
+                while (this.running && this.written == this.durable) {
+                    try {
+                        this.flushLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.written == this.durable) {
+                    return;
+                }
+                target = this.written;
+            }
+            RuntimeException failure = null;
+            try {
+                this.buffer.force();
+            } catch (RuntimeException e) {
+                logger.error("Could not sync the reservation journal", e);
+                failure = e;
+            }
+            synchronized (this.flushLock) {
+                if (failure != null) {
+                    this.failed = target;
+                } else {
+                    this.durable = target;
+                }
+                this.failure = failure;
+                this.flushLock.notifyAll();
+                if (failure != null) {
+                    if (!this.running) {
+                        return;
+                    }
+                    try {
+                        this.flushLock.wait(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // Maps a larger part of the file; what was written through the old mapping is forced first
+    private void grow(int needed) {
+        try {
+            this.buffer.force();
+            int position = this.buffer.position();
+            long capacity = Math.max((long) this.buffer.capacity() * 2, (long) position + needed);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("The reservation journal is full");
+            }
+            MappedByteBuffer grown = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            grown.position(position);
+            this.buffer = grown;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not grow the reservation journal", e);
+            this.failure = e instanceof RuntimeException ? (RuntimeException) e : new UncheckedIOException((IOException) e);
+            throw new InternalServerErrorException("There is an internal problem in the server.");
+        }
+    }
+
+    // Writes the live reservations and the carried cancellations to a new file that
+    // replaces the log; returns its size
+    private long compact(Collection<Reservation> live, Collection<String> cancelled) throws IOException {
+        Path compacted = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        long size = 0;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            List<byte[]> payloads = new ArrayList<>();
+            for (Reservation reservation : live) {
+                payloads.add(encode(CREATE, COMPACTED, reservation.getResourceId(), reservation));
+            }
+            for (String resourceId : cancelled) {
+                payloads.add(encode(CANCEL, COMPACTED, resourceId, null));
+            }
+            for (byte[] payload : payloads) {
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer record = ByteBuffer.allocate(HEADER + payload.length);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (record.hasRemaining()) {
+                    size += out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(compacted, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    // Folds the log into the reservations it leaves and the ones it cancelled, skipping
+    // aborted transactions; carried gets the cancellations written since the last
+    // compaction. A torn record at the end is where it stops
+    private static void read(Path path, Map<String, Reservation> live, Set<String> cancelled, Set<String> carried) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        Set<Long> aborted = new HashSet<>();
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (log.remaining() >= HEADER) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length <= 0 || length > log.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            log.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            Command command = decode(payload);
+            if (command.type == ABORT) {
+                aborted.add(command.transaction);
+            } else {
+                commands.add(command);
+            }
+        }
+        for (Command command : commands) {
+            if (aborted.contains(command.transaction)) {
+                continue;
+            }
+            if (command.type == CREATE) {
+                live.put(command.resourceId, command.reservation);
+                cancelled.remove(command.resourceId);
+                carried.remove(command.resourceId);
+            } else if (command.type == MOVE) {
+                Reservation reservation = live.get(command.resourceId);
+                if (reservation != null) {
+                    reservation.setArrivalDate(command.reservation.getArrivalDate());
+                    reservation.setDepartureDate(command.reservation.getDepartureDate());
+                }
+            } else if (command.type == CANCEL) {
+                live.remove(command.resourceId);
+                cancelled.add(command.resourceId);
+                if (command.transaction != COMPACTED) {
+                    carried.add(command.resourceId);
+                }
+            }
+        }
+    }
+
+    private static Command decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        long transaction = in.readLong();
+        String resourceId = in.readUTF();
+        Reservation reservation = null;
+        if (type == CREATE) {
+            int campsite = in.readInt();
+            LocalDate arrivalDate = LocalDate.ofEpochDay(in.readLong());
+            LocalDate departureDate = LocalDate.ofEpochDay(in.readLong());
+            String name = in.readBoolean() ? in.readUTF() : null;
+            String email = in.readBoolean() ? in.readUTF() : null;
+            reservation = new Reservation(arrivalDate, departureDate, name, email, resourceId, campsite);
+        } else if (type == MOVE) {
+            reservation = new Reservation(LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong()), null, null);
+        }
+        return new Command(type, transaction, resourceId, reservation);
+    }
+
+    private static byte[] encode(byte type, long transaction, String resourceId, Reservation reservation) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeLong(transaction);
+            out.writeUTF(resourceId);
+            if (type == CREATE) {
+                out.writeInt(reservation.getCampsite());
+            }
+            if (type == CREATE || type == MOVE) {
+                out.writeLong(reservation.getArrivalDate().toEpochDay());
+                out.writeLong(reservation.getDepartureDate().toEpochDay());
+            }
+            if (type == CREATE) {
+                writeNullable(out, reservation.getName());
+                writeNullable(out, reservation.getEmail());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static final class Command {
+        private final byte type;
+        private final long transaction;
+        private final String resourceId;
+        private final Reservation reservation;
+
+        private Command(byte type, long transaction, String resourceId, Reservation reservation) {
+            this.type = type;
+            this.transaction = transaction;
+            this.resourceId = resourceId;
+            this.reservation = reservation;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.upgrade.codechallenge.metrics;
+
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.util.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Times every ReservationService call and records what happened inside it: the
+ * validation rule that rejected it, occupied-range conflicts, how many repository
+ * calls it made and how many rows it wrote. Endpoint latency comes from Spring
+ * Boot's own http.server.requests timer. It runs outside OptimisticRetry, so a
+ * retried call is timed once, commits included.
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 2)
+public class ReservationMetrics {
+
+    private static final class Call {
+        int repositoryCalls;
+        long rowsWritten;
+    }
+
+    private final MeterRegistry registry;
+
+    private final ThreadLocal<Call> current = new ThreadLocal<>();
+
+    public ReservationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Around("execution(* com.upgrade.codechallenge.service.ReservationService.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (this.current.get() != null) {
+            return joinPoint.proceed();
+        }
+        String method = joinPoint.getSignature().getName();
+        Call call = new Call();
+        this.current.set(call);
+        Timer.Sample sample = Timer.start(this.registry);
+        String outcome = "error";
+        try {
+            Object result = joinPoint.proceed();
+            outcome = this.outcome(method, result);
+            return result;
+        } catch (OccupiedDateRangeException e) {
+            outcome = "conflict";
+            Counter.builder("reservation.conflicts")
+                    .tag("method", method)
+                    .register(this.registry)
+                    .increment();
+            throw e;
+        } finally {
+            this.current.remove();
+            sample.stop(Timer.builder("reservation.service")
+                    .tag("method", method)
+                    .tag("outcome", outcome)
+                    .register(this.registry));
+            DistributionSummary.builder("reservation.repository.calls")
+                    .tag("method", method)
+                    .register(this.registry)
+                    .record(call.repositoryCalls);
+            if (call.rowsWritten > 0) {
+                DistributionSummary.builder("reservation.rows.written")
+                        .tag("method", method)
+                        .register(this.registry)
+                        .record(call.rowsWritten);
+            }
+        }
+    }
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object countRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object result = joinPoint.proceed();
+        Call call = this.current.get();
+        if (call != null) {
+            call.repositoryCalls++;
+            String name = joinPoint.getSignature().getName();
+            if (name.startsWith("save") || name.startsWith("delete")) {
+                call.rowsWritten += rows(joinPoint.getArgs(), result);
+            }
+        }
+        return result;
+    }
+
+    private String outcome(String method, Object result) {
+        if (!(result instanceof Response) || ((Response) result).getError() == null) {
+            return "ok";
+        }
+        Response response = (Response) result;
+        // Lost a race on the reservation's version
+        if (response.getCode() == HttpStatus.PRECONDITION_FAILED || response.getCode() == HttpStatus.CONFLICT) {
+            return "conflict";
+        }
+        if (response.getCode() != HttpStatus.BAD_REQUEST) {
+            return response.getCode() == HttpStatus.NOT_FOUND ? "not_found" : "error";
+        }
+        Counter.builder("reservation.validation.rejections")
+                .tag("method", method)
+                .tag("rule", response.getRule() == null ? "other" : response.getRule())
+                .register(this.registry)
+                .increment();
+        return "rejected";
+    }
+
+    // Bulk deletes report their row count, batch calls carry their entities
+    private static long rows(Object[] args, Object result) {
+        if (result instanceof Integer) {
+            return (Integer) result;
+        }
+        if (args.length > 0 && args[0] instanceof Collection) {
+            return ((Collection<?>) args[0]).size();
+        }
+        if (args.length > 0 && args[0] instanceof Iterable) {
+            long count = 0;
+            for (Object ignored : (Iterable<?>) args[0]) {
+                count++;
+            }
+            return count;
+        }
+        return args.length > 0 ? 1 : 0;
+    }
+}
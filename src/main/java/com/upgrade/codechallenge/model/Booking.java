@@ -0,0 +1,153 @@
+package com.upgrade.codechallenge.model;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A whole stay stored as a single arrival/departure interval, used when
+ * reservation.storage=range instead of one Reservation row per night.
+ */
+@Entity
+@Table(name = "booking", indexes = {
+        @Index(name = "idx_booking_dates", columnList = "campsite, arrival_date, departure_date"),
+        @Index(name = "idx_booking_email", columnList = "email")
+})
+public class Booking {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_seq")
+    @SequenceGenerator(name = "booking_seq", sequenceName = "booking_seq", allocationSize = 50)
+    private Long id;
+    @Column(name="resource_id", unique=true)
+    private String resourceId;
+    @Column(name="campsite", nullable=false)
+    private int campsite = Reservation.DEFAULT_CAMPSITE;
+    @Column(name="arrival_date")
+    private LocalDate arrivalDate;
+    @Column(name="departure_date")
+    private LocalDate departureDate;
+    private String name;
+    private String email;
+    @Version
+    @Column(name="version")
+    private long version;
+
+    public Booking() {}
+
+    public Booking(LocalDate arrivalDate, LocalDate departureDate, String name, String email, String resourceId) {
+        this.arrivalDate = arrivalDate;
+        this.departureDate = departureDate;
+        this.name = name;
+        this.email = email;
+        this.resourceId = resourceId;
+    }
+
+    public Booking(LocalDate arrivalDate, LocalDate departureDate, String name, String email, String resourceId, int campsite) {
+        this(arrivalDate, departureDate, name, email, resourceId);
+        this.campsite = campsite;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public int getCampsite() {
+        return campsite;
+    }
+
+    public void setCampsite(int campsite) {
+        this.campsite = campsite;
+    }
+
+    public LocalDate getArrivalDate() {
+        return arrivalDate;
+    }
+
+    public void setArrivalDate(LocalDate arrivalDate) {
+        this.arrivalDate = arrivalDate;
+    }
+
+    public LocalDate getDepartureDate() {
+        return departureDate;
+    }
+
+    public void setDepartureDate(LocalDate departureDate) {
+        this.departureDate = departureDate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    // The per-night view the REST API exposes
+    public List<Reservation> toReservations() {
+        List<Reservation> reservations = new ArrayList<>();
+        for (LocalDate day = this.arrivalDate; day.isBefore(this.departureDate); day = day.plusDays(1)) {
+            Reservation night = new Reservation(day, day.plusDays(1), this.name, this.email, this.resourceId, this.campsite);
+            night.setVersion(this.version);
+            reservations.add(night);
+        }
+        return reservations;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("Booking - bookingId = ").append(this.id)
+            .append(" - resourceId = ").append(this.resourceId)
+            .append(" - campsite = ").append(this.campsite)
+            .append(" - arrivalDate = ").append(this.arrivalDate.toString())
+            .append(" - departureDate = ").append(this.departureDate.toString())
+            .append(" - name = ").append(this.name)
+            .append(" - email = ").append(this.email);
+        return ret.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Booking that = (Booking) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, resourceId);
+    }
+}
@@ -0,0 +1,29 @@
+package com.upgrade.codechallenge.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * One row per bookable site, locked by range mode writes so that two transactions
+ * cannot both find a site's nights free and then book them.
+ */
+@Entity
+@Table(name = "campsite")
+public class Campsite {
+
+    @Id
+    @Column(name="id")
+    private int id;
+
+    public Campsite() {}
+
+    public Campsite(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
@@ -6,16 +6,31 @@ import com.upgrade.codechallenge.util.ReservationGsonAdapter;
 
 import javax.persistence.*;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_reservation_resource_id", columnList = "resource_id"),
+        @Index(name = "idx_reservation_email", columnList = "email")
+}, uniqueConstraints = {
+        // A site can only be booked once per night
+        @UniqueConstraint(name = "uk_reservation_campsite_night", columnNames = {"campsite", "arrival_date"})
+})
 @JsonAdapter(ReservationGsonAdapter.class)
 public class Reservation {
 
+    // Site booked when a request does not name one
+    public static final int DEFAULT_CAMPSITE = 1;
+
+    // Pooled sequence so the rows of a reservation can be inserted in a single JDBC batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reservation_seq")
+    @SequenceGenerator(name = "reservation_seq", sequenceName = "reservation_seq", allocationSize = 50)
     private Long id;
-    @Column(name="arrival_date", unique=true)
+    @Column(name="campsite", nullable=false)
+    private int campsite = DEFAULT_CAMPSITE;
+    @Column(name="arrival_date")
     private LocalDate arrivalDate;
     @Column(name="departure_date")
     private LocalDate departureDate;
@@ -23,6 +38,10 @@ public class Reservation {
     private String email;
     @Column(name="resource_id")
     private String resourceId;
+    // All the rows of a reservation share the version; PATCH and DELETE check it
+    @Version
+    @Column(name="version")
+    private long version;
 
     public Reservation() {}
 
@@ -34,6 +53,11 @@ public class Reservation {
         this.resourceId = resourceId;
     }
 
+    public Reservation(LocalDate arrivalDate, LocalDate departureDate, String name, String email, String resourceId, int campsite) {
+        this(arrivalDate, departureDate, name, email, resourceId);
+        this.campsite = campsite;
+    }
+
     public Reservation(LocalDate arrivalDate, LocalDate departureDate, String name, String email) {
         this.arrivalDate = arrivalDate;
         this.departureDate = departureDate;
@@ -49,6 +73,14 @@ public class Reservation {
         this.id = id;
     }
 
+    public int getCampsite() {
+        return campsite;
+    }
+
+    public void setCampsite(int campsite) {
+        this.campsite = campsite;
+    }
+
     @JsonFormat(pattern = "yyyy-MM-dd")
     public LocalDate getArrivalDate() {
         return arrivalDate;
@@ -93,10 +125,28 @@ public class Reservation {
         this.resourceId = resourceId;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    // Version of the reservation the nights belong to
+    public static long versionOf(Collection<Reservation> nights) {
+        long version = 0;
+        for (Reservation night : nights) {
+            version = Math.max(version, night.getVersion());
+        }
+        return version;
+    }
+
     @Override
     public String toString() {
         StringBuilder ret = new StringBuilder();
         ret.append("Reservation - reservationId = ").append(this.id)
+            .append(" - campsite = ").append(this.campsite)
             .append(" - arrivalDate = ").append(this.arrivalDate.toString())
             .append(" - departureDate = ").append(this.departureDate.toString())
             .append(" - name = ").append(this.name)
@@ -114,6 +164,6 @@ public class Reservation {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, arrivalDate, departureDate, name, email, resourceId);
+        return Objects.hash(id, campsite, arrivalDate, departureDate, name, email, resourceId);
     }
 }
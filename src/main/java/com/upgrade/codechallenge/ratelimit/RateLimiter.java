@@ -0,0 +1,191 @@
+package com.upgrade.codechallenge.ratelimit;
+
+import com.upgrade.codechallenge.util.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per client address and per guest email, taken from before a booking
+ * write reaches the service. A bucket is a single AtomicLong holding the time it is
+ * full again, so taking a token is one compare-and-set and never blocks. A full bucket
+ * is the same as a missing one: buckets are dropped once they fill up, and beyond
+ * maxBuckets per kind the oldest ones go first, so memory stays flat under churn.
+ */
+@Component
+public class RateLimiter {
+
+    private final boolean enabled;
+    private final Clock clock;
+    private final Limit addresses;
+    private final Limit emails;
+
+    @Autowired
+    public RateLimiter(@Value("${reservation.ratelimit.enabled:false}") boolean enabled,
+                       @Value("${reservation.ratelimit.ip.per-minute:60}") int addressPerMinute,
+                       @Value("${reservation.ratelimit.ip.burst:20}") int addressBurst,
+                       @Value("${reservation.ratelimit.email.per-minute:10}") int emailPerMinute,
+                       @Value("${reservation.ratelimit.email.burst:5}") int emailBurst,
+                       @Value("${reservation.ratelimit.max-buckets:100000}") int maxBuckets,
+                       MeterRegistry registry) {
+        this(enabled, addressPerMinute, addressBurst, emailPerMinute, emailBurst, maxBuckets, Clock.systemUTC(), registry);
+    }
+
+    public RateLimiter(boolean enabled, int addressPerMinute, int addressBurst, int emailPerMinute, int emailBurst,
+                       int maxBuckets, Clock clock, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.clock = clock;
+        this.addresses = new Limit("ip", addressPerMinute, addressBurst, maxBuckets, registry);
+        this.emails = new Limit("email", emailPerMinute, emailBurst, maxBuckets, registry);
+    }
+
+    public static Response tooManyRequests() {
+        return new Response("Too many requests, please try again later.", null, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    // Seconds to wait before trying again, or 0 when the request may go ahead. Missing
+    // addresses and emails are not limited; every email of a batch takes a token.
+    public long admit(String address, String... emails) {
+        if (!this.enabled) {
+            return 0;
+        }
+        long now = this.clock.millis();
+        long wait = (address != null) ? this.addresses.take(address, now) : 0;
+        if (wait != 0) {
+            return seconds(wait);
+        }
+        List<String> taken = new ArrayList<>(emails.length);
+        for (int i = 0; wait == 0 && i < emails.length; i++) {
+            if (emails[i] != null && !emails[i].trim().isEmpty()) {
+                String email = emails[i].trim().toLowerCase(Locale.ROOT);
+                wait = this.emails.take(email, now);
+                if (wait == 0) {
+                    taken.add(email);
+                }
+            }
+        }
+        if (wait != 0) {
+            // A request turned away gives back the tokens it already took
+            if (address != null) {
+                this.addresses.refund(address);
+            }
+            for (String email : taken) {
+                this.emails.refund(email);
+            }
+            return seconds(wait);
+        }
+        return 0;
+    }
+
+    private static long seconds(long millis) {
+        return Math.max(1, (millis + 999) / 1000);
+    }
+
+    public int size() {
+        return this.addresses.size.get() + this.emails.size.get();
+    }
+
+    // Time the bucket is full again, in clock millis
+    private static final class Bucket extends AtomicLong {
+        private final String key;
+
+        private Bucket(String key, long full) {
+            super(full);
+            this.key = key;
+        }
+    }
+
+    private static final class Limit {
+        private final long intervalMillis;
+        private final long burstMillis;
+        private final int maxBuckets;
+        private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+        // Buckets in the order they were created; ones already gone from the map are
+        // skipped when they reach the head
+        private final Queue<Bucket> order = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final Counter allowed;
+        private final Counter limited;
+
+        private Limit(String kind, int perMinute, int burst, int maxBuckets, MeterRegistry registry) {
+            this.intervalMillis = Math.max(1, 60_000L / Math.max(1, perMinute));
+            this.burstMillis = this.intervalMillis * Math.max(1, burst);
+            this.maxBuckets = maxBuckets;
+            this.allowed = Counter.builder("reservation.ratelimit.requests")
+                    .tag("key", kind).tag("outcome", "allowed").register(registry);
+            this.limited = Counter.builder("reservation.ratelimit.requests")
+                    .tag("key", kind).tag("outcome", "limited").register(registry);
+            Gauge.builder("reservation.ratelimit.buckets", this.size, AtomicInteger::get)
+                    .tag("key", kind).register(registry);
+        }
+
+        // Millis to wait for a token, 0 when one was taken
+        private long take(String key, long now) {
+            Bucket bucket = this.buckets.get(key);
+            if (bucket == null) {
+                Bucket created = new Bucket(key, now);
+                bucket = this.buckets.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                    this.order.add(created);
+                    this.size.incrementAndGet();
+                }
+            }
+            long wait = this.take(bucket, now);
+            // After the take, so that a bucket just created is no longer full
+            this.trim(now);
+            return wait;
+        }
+
+        private long take(Bucket bucket, long now) {
+            while (true) {
+                long full = bucket.get();
+                long next = Math.max(full, now) + this.intervalMillis;
+                if (next - now > this.burstMillis) {
+                    this.limited.increment();
+                    return next - now - this.burstMillis;
+                }
+                if (bucket.compareAndSet(full, next)) {
+                    this.allowed.increment();
+                    return 0;
+                }
+            }
+        }
+
+        // Puts back a token taken by this request; a bucket dropped since then was full anyway
+        private void refund(String key) {
+            Bucket bucket = this.buckets.get(key);
+            if (bucket != null) {
+                bucket.addAndGet(-this.intervalMillis);
+            }
+        }
+
+        // Drops the buckets at the head that are full again, and the oldest ones
+        // beyond maxBuckets, whose clients then start over with a full bucket
+        private void trim(long now) {
+            Bucket bucket;
+            while ((bucket = this.order.peek()) != null
+                    && (bucket.get() <= now || this.size.get() > this.maxBuckets)) {
+                if (this.order.remove(bucket)) {
+                    this.size.decrementAndGet();
+                    this.buckets.remove(bucket.key, bucket);
+                }
+            }
+        }
+    }
+}
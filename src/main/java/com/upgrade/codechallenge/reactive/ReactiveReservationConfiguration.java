@@ -0,0 +1,72 @@
+package com.upgrade.codechallenge.reactive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.DELETE;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.PATCH;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * The reservation API on Netty, used with the reactive profile. Requests are served
+ * by the event loop; calls into the JPA backed ReservationService run on a bounded
+ * pool of reservation.reactive.threads threads.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveReservationConfiguration {
+
+    // Netty even though Tomcat is on the classpath for the servlet variant
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler reservationScheduler(@Value("${reservation.reactive.threads:16}") int threads,
+                                          @Value("${reservation.reactive.queue-capacity:200}") int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "reservation-reactive-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return Schedulers.fromExecutorService(executor);
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> reservationRoutes(ReservationHandler handler) {
+        return route(POST("/reservation").and(contentType(MediaType.APPLICATION_JSON)), handler::saveReservation)
+                .andRoute(POST("/reservation/batch").and(contentType(MediaType.APPLICATION_JSON)), handler::saveReservations)
+                .andRoute(POST("/reservation/hold").and(contentType(MediaType.APPLICATION_JSON)), handler::holdReservation)
+                .andRoute(POST("/reservation/hold/{id}/confirm").and(contentType(MediaType.APPLICATION_JSON)), handler::confirmHold)
+                .andRoute(DELETE("/reservation/hold/{id}"), handler::releaseHold)
+                .andRoute(POST("/reservation/waitlist").and(contentType(MediaType.APPLICATION_JSON)), handler::joinWaitlist)
+                .andRoute(GET("/reservation/waitlist/{id}"), handler::getWaitlistEntry)
+                .andRoute(DELETE("/reservation/waitlist/{id}"), handler::leaveWaitlist)
+                .andRoute(GET("/reservation").and(queryParam("email", email -> true)), handler::getReservationsByEmail)
+                .andRoute(GET("/reservation"), handler::getReservations)
+                .andRoute(GET("/reservation/{id}"), handler::getReservation)
+                .andRoute(PATCH("/reservation/{id}").and(contentType(MediaType.APPLICATION_JSON)), handler::updateReservation)
+                .andRoute(DELETE("/reservation/{id}"), handler::deleteReservation);
+    }
+}
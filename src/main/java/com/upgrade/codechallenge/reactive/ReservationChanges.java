@@ -0,0 +1,48 @@
+package com.upgrade.codechallenge.reactive;
+
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Committed reservation changes as a hot stream, so that long-polling clients wait
+ * for a change to their window without holding a thread.
+ */
+@Component
+@Profile("reactive")
+public class ReservationChanges {
+
+    private final DirectProcessor<ReservationChangedEvent> processor = DirectProcessor.create();
+    private final FluxSink<ReservationChangedEvent> sink = this.processor.sink();
+
+    // After the caches and DataVersions, so a woken client reads the new data and tag
+    @EventListener
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        this.sink.next(event);
+    }
+
+    // Emits true once a night of the window changes, or right away if changed() already
+    // holds once listening has started; emits false when the timeout runs out first
+    public Mono<Boolean> awaitChange(LocalDate arrivalDate, LocalDate departureDate,
+                                     BooleanSupplier changed, Duration timeout) {
+        Flux<Boolean> changes = this.processor
+                .filter(event -> event.overlaps(arrivalDate, departureDate))
+                .map(event -> true);
+        Mono<Boolean> alreadyChanged = Mono.fromCallable(changed::getAsBoolean).filter(Boolean::booleanValue);
+        return Flux.merge(changes, alreadyChanged)
+                .next()
+                .timeout(timeout, Mono.just(false));
+    }
+}
@@ -0,0 +1,352 @@
+package com.upgrade.codechallenge.reactive;
+
+import com.upgrade.codechallenge.cache.AvailabilityResponseCache;
+import com.upgrade.codechallenge.cache.DataVersions;
+import com.upgrade.codechallenge.cache.IdempotencyStore;
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.ratelimit.RateLimiter;
+import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.ResponseEncoder;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Handlers behind the reactive routes, with the same contract as ReservationController.
+ * ETag checks, cached windows and long polls are answered on the event loop; only the
+ * ReservationService calls go to the reservation scheduler.
+ */
+@Component
+@Profile("reactive")
+public class ReservationHandler {
+
+    // Longest a GET /reservation?wait=... request is held open
+    static final long MAX_WAIT_SECONDS = 60;
+
+    private ResponseEncoder encoder = new ResponseEncoder();
+
+    private ReservationService reservationService;
+
+    private AvailabilityResponseCache availabilityCache;
+
+    private DataVersions dataVersions;
+
+    private ReservationChanges changes;
+
+    private Scheduler scheduler;
+
+    private IdempotencyStore idempotencyStore;
+
+    private RateLimiter rateLimiter;
+
+    public ReservationHandler(ReservationService reservationService,
+                              AvailabilityResponseCache availabilityCache,
+                              DataVersions dataVersions,
+                              ReservationChanges changes,
+                              Scheduler reservationScheduler,
+                              IdempotencyStore idempotencyStore,
+                              RateLimiter rateLimiter) {
+        this.reservationService = reservationService;
+        this.availabilityCache = availabilityCache;
+        this.dataVersions = dataVersions;
+        this.changes = changes;
+        this.scheduler = reservationScheduler;
+        this.idempotencyStore = idempotencyStore;
+        this.rateLimiter = rateLimiter;
+    }
+
+    // POST /reservation
+    public Mono<ServerResponse> saveReservation(ServerRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return request.bodyToMono(Reservation.class)
+                .flatMap(reservation -> this.throttle(request, format, reservation.getEmail()).orElseGet(() -> this.write(request, format,
+                        IdempotencyStore.fingerprint("POST /reservation", reservation.getArrivalDate(),
+                                reservation.getDepartureDate(), reservation.getName(), reservation.getEmail(),
+                                reservation.getCampsite()),
+                        () -> {
+                            try {
+                                return this.reservationService.saveReservation(reservation);
+                            } catch(OccupiedDateRangeException e) {
+                                return new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+                            }
+                        })));
+    }
+
+    // POST /reservation/batch
+    public Mono<ServerResponse> saveReservations(ServerRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return request.bodyToFlux(Reservation.class)
+                .collectList()
+                .flatMap(reservations -> this.throttle(request, format,
+                        reservations.stream().map(Reservation::getEmail).distinct().toArray(String[]::new)).orElseGet(() -> this.call(format, () -> {
+                    try {
+                        return this.render(this.reservationService.saveReservations(reservations), format);
+                    } catch(OccupiedDateRangeException e) {
+                        return this.render(new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST), format);
+                    }
+                })));
+    }
+
+    // POST /reservation/hold - params(minutes)
+    public Mono<ServerResponse> holdReservation(ServerRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        int minutes = request.queryParam("minutes").map(Integer::parseInt).orElse(ReservationService.DEFAULT_HOLD_MINUTES);
+        return request.bodyToMono(Reservation.class)
+                .flatMap(reservation -> this.throttle(request, format, reservation.getEmail()).orElseGet(() -> this.call(format, () -> {
+                    try {
+                        return this.render(this.reservationService.holdReservation(reservation, minutes), format);
+                    } catch(OccupiedDateRangeException e) {
+                        return this.render(new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST), format);
+                    }
+                })));
+    }
+
+    // POST /reservation/hold/{id}/confirm
+    public Mono<ServerResponse> confirmHold(ServerRequest request) {
+        String id = request.pathVariable("id");
+        ResponseEncoder.Format format = this.negotiate(request);
+        return request.bodyToMono(Reservation.class)
+                .flatMap(guest -> this.throttle(request, format, guest.getEmail()).orElseGet(() -> this.call(format, () -> {
+                    try {
+                        return this.render(this.reservationService.confirmHold(id, guest), format);
+                    } catch(OccupiedDateRangeException e) {
+                        return this.render(new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST), format);
+                    }
+                })));
+    }
+
+    // DELETE /reservation/hold/{id}
+    public Mono<ServerResponse> releaseHold(ServerRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return this.render(this.reservationService.releaseHold(request.pathVariable("id")), format);
+    }
+
+    // POST /reservation/waitlist
+    public Mono<ServerResponse> joinWaitlist(ServerRequest request) {
+        ResponseEncoder.Format format = this.negotiate(request);
+        return request.bodyToMono(Reservation.class)
+                .flatMap(reservation -> this.throttle(request, format, reservation.getEmail())
+                        .orElseGet(() -> this.render(this.reservationService.joinWaitlist(reservation), format)));
+    }
+
+    // GET /reservation/waitlist/{id}
+    public Mono<ServerResponse> getWaitlistEntry(ServerRequest request) {
+        return this.render(this.reservationService.getWaitlistEntry(request.pathVariable("id")), this.negotiate(request));
+    }
+
+    // DELETE /reservation/waitlist/{id}
+    public Mono<ServerResponse> leaveWaitlist(ServerRequest request) {
+        return this.render(this.reservationService.leaveWaitlist(request.pathVariable("id")), this.negotiate(request));
+    }
+
+    // GET /reservation - params(arrival, departure, wait)
+    public Mono<ServerResponse> getReservations(ServerRequest request) {
+        LocalDate arrivalDate = request.queryParam("arrival").map(LocalDate::parse).orElse(null);
+        LocalDate departureDate = request.queryParam("departure").map(LocalDate::parse).orElse(null);
+        ResponseEncoder.Format format = this.negotiate(request);
+        if(arrivalDate == null) {
+            return this.call(format, () -> this.render(this.reservationService.getReservations(null, departureDate), format));
+        }
+        LocalDate windowEnd = (departureDate != null)? departureDate : arrivalDate.plusDays(ReservationService.DEFAULT_WINDOW_DAYS);
+        if(arrivalDate.isAfter(windowEnd)) {
+            return this.call(format, () -> this.render(this.reservationService.getReservations(arrivalDate, departureDate), format));
+        }
+        // The tag is taken before any data is read, so it is never newer than the body
+        String etag = this.dataVersions.windowTag(arrivalDate, windowEnd, format.name());
+        if(notModified(request, etag) == null) {
+            return this.window(arrivalDate, departureDate, windowEnd, format, etag);
+        }
+        long wait = Math.min(request.queryParam("wait").map(Long::parseLong).orElse(0L), MAX_WAIT_SECONDS);
+        if(wait <= 0) {
+            return notModified(etag);
+        }
+        // Held without a thread until a night of the window changes or the wait runs out
+        return this.changes.awaitChange(arrivalDate, windowEnd,
+                () -> !etag.equals(this.dataVersions.windowTag(arrivalDate, windowEnd, format.name())),
+                Duration.ofSeconds(wait))
+                .flatMap(changed -> changed
+                        ? this.window(arrivalDate, departureDate, windowEnd, format,
+                                      this.dataVersions.windowTag(arrivalDate, windowEnd, format.name()))
+                        : notModified(etag));
+    }
+
+    // GET /reservation - params(email)
+    public Mono<ServerResponse> getReservationsByEmail(ServerRequest request) {
+        String email = request.queryParam("email").orElse(null);
+        ResponseEncoder.Format format = this.negotiate(request);
+        return this.call(format, () -> this.render(this.reservationService.getReservationsByEmail(email), format));
+    }
+
+    // GET /reservation/{id}
+    public Mono<ServerResponse> getReservation(ServerRequest request) {
+        String resourceId = request.pathVariable("id");
+        ResponseEncoder.Format format = this.negotiate(request);
+        String etag = this.dataVersions.resourceTag(resourceId, format.name());
+        String current = notModified(request, etag);
+        if(current != null) {
+            return notModified(current);
+        }
+        return this.call(format, () -> {
+            Response response = this.reservationService.getReservation(resourceId);
+            if(response.getCode() != HttpStatus.OK) {
+                return this.render(response, format);
+            }
+            return this.reply(HttpStatus.OK, format, this.encoder.encode(response, format),
+                    DataVersions.withVersion(etag, response.getContent()));
+        });
+    }
+
+    // PATCH /reservation/{id}
+    public Mono<ServerResponse> updateReservation(ServerRequest request) {
+        String id = request.pathVariable("id");
+        ResponseEncoder.Format format = this.negotiate(request);
+        Long expectedVersion = DataVersions.expectedVersion(request.headers().asHttpHeaders().getFirst(HttpHeaders.IF_MATCH));
+        return request.bodyToMono(Reservation.class)
+                .flatMap(reservation -> this.write(request, format,
+                        IdempotencyStore.fingerprint("PATCH /reservation/" + id, reservation.getArrivalDate(),
+                                reservation.getDepartureDate(), reservation.getName(), reservation.getEmail(), expectedVersion),
+                        () -> {
+                            try {
+                                return this.reservationService.updateReservation(id, reservation, expectedVersion);
+                            } catch(OccupiedDateRangeException e) {
+                                return new Response(e.getMessage(), null, HttpStatus.BAD_REQUEST);
+                            }
+                        }));
+    }
+
+    // DELETE /reservation/{id}
+    public Mono<ServerResponse> deleteReservation(ServerRequest request) {
+        String id = request.pathVariable("id");
+        ResponseEncoder.Format format = this.negotiate(request);
+        Long expectedVersion = DataVersions.expectedVersion(request.headers().asHttpHeaders().getFirst(HttpHeaders.IF_MATCH));
+        return this.call(format, () -> {
+            Response response;
+            try {
+                response = this.reservationService.deleteReservation(id, expectedVersion);
+            } catch (Exception e){
+                response = new Response(e.getMessage(), null, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            return ServerResponse.status(response.getCode())
+                    .contentType(this.encoder.contentType(format))
+                    .build();
+        });
+    }
+
+    private Mono<ServerResponse> window(LocalDate arrivalDate, LocalDate departureDate, LocalDate windowEnd,
+                                        ResponseEncoder.Format format, String etag) {
+        byte[] cached = this.availabilityCache.get(arrivalDate, windowEnd, format);
+        if(cached != null) {
+            return this.reply(HttpStatus.OK, format, cached, etag);
+        }
+        return this.call(format, () -> {
+            long generation = this.availabilityCache.generation();
+            Response response = this.reservationService.getReservations(arrivalDate, departureDate);
+            if(response.getCode() != HttpStatus.OK) {
+                return this.render(response, format);
+            }
+            byte[] body = this.encoder.encode(response, format);
+            this.availabilityCache.put(arrivalDate, windowEnd, format, body, generation);
+            return this.reply(HttpStatus.OK, format, body, etag);
+        });
+    }
+
+    // Empty when the client and the guests may go ahead, otherwise the 429 to answer with
+    private Optional<Mono<ServerResponse>> throttle(ServerRequest request, ResponseEncoder.Format format, String... emails) {
+        String address = request.remoteAddress().map(remote -> remote.getAddress().getHostAddress()).orElse(null);
+        long retryAfter = this.rateLimiter.admit(address, emails);
+        if (retryAfter == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                .contentType(this.encoder.contentType(format))
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                .syncBody(this.encoder.encode(RateLimiter.tooManyRequests(), format)));
+    }
+
+    // Runs blocking work on the reservation scheduler; a saturated scheduler gets a 503 at once
+    private Mono<ServerResponse> call(ResponseEncoder.Format format, Callable<Mono<ServerResponse>> work) {
+        return Mono.fromCallable(work)
+                .subscribeOn(this.scheduler)
+                .flatMap(response -> response)
+                .onErrorResume(RejectedExecutionException.class, e -> this.render(busy(), format));
+    }
+
+    // Same as call, but a write sent with an Idempotency-Key runs at most once per key
+    private Mono<ServerResponse> write(ServerRequest request, ResponseEncoder.Format format,
+                                       String fingerprint, Callable<Response> work) {
+        String key = request.headers().asHttpHeaders().getFirst(IdempotencyStore.HEADER);
+        if(key == null) {
+            return this.call(format, () -> this.render(work.call(), format));
+        }
+        Response keyError = IdempotencyStore.validateKey(key);
+        if(keyError != null) {
+            return this.render(keyError, format);
+        }
+        return Mono.fromFuture(this.idempotencyStore.execute(key, fingerprint,
+                        () -> Mono.fromCallable(work).subscribeOn(this.scheduler).toFuture()))
+                .flatMap(response -> this.render(response, format))
+                .onErrorResume(RejectedExecutionException.class, e -> this.render(busy(), format));
+    }
+
+    private static Response busy() {
+        return new Response("The server is busy, please try again later.", null, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private static Mono<ServerResponse> notModified(String etag) {
+        return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    // The tag to answer a 304 with, null when If-None-Match names no current data
+    private static String notModified(ServerRequest request, String etag) {
+        List<String> ifNoneMatch = request.headers().header(HttpHeaders.IF_NONE_MATCH);
+        for (String header : ifNoneMatch) {
+            for (String candidate : header.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*")) {
+                    return etag;
+                }
+                if (DataVersions.matches(candidate, etag)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private ResponseEncoder.Format negotiate(ServerRequest request) {
+        return this.encoder.negotiate(request.headers().asHttpHeaders().getFirst(HttpHeaders.ACCEPT),
+                request.queryParam("pretty").orElse(null));
+    }
+
+    private Mono<ServerResponse> render(Response response, ResponseEncoder.Format format) {
+        return this.reply(response.getCode(), format, this.encoder.encode(response, format), null);
+    }
+
+    private Mono<ServerResponse> reply(HttpStatus status, ResponseEncoder.Format format, byte[] body, String etag) {
+        ServerResponse.BodyBuilder builder = ServerResponse.status(status).contentType(this.encoder.contentType(format));
+        if(etag != null) {
+            builder.eTag(etag);
+        }
+        if(status == HttpStatus.SERVICE_UNAVAILABLE) {
+            builder.header(HttpHeaders.RETRY_AFTER, "1");
+        }
+        return builder.syncBody(body);
+    }
+}
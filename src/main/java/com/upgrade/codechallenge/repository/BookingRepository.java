@@ -0,0 +1,53 @@
+package com.upgrade.codechallenge.repository;
+
+import com.upgrade.codechallenge.model.Booking;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.QueryHint;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+public interface BookingRepository extends JpaRepository<Booking, Long> {
+
+    Booking findByResourceId(String resourceId);
+
+    List<Booking> findByEmailOrderByArrivalDate(String email);
+
+    List<Booking> findByDepartureDateGreaterThan(LocalDate date);
+
+    // Bookings of any site sharing at least one night with [arrivalDate, departureDate)
+    @Query(value = "SELECT b FROM Booking b WHERE b.arrivalDate < :departure_date AND b.departureDate > :arrival_date ORDER BY b.arrivalDate, b.campsite")
+    List<Booking> findOverlapping(@Param("arrival_date") LocalDate arrivalDate,
+                                  @Param("departure_date") LocalDate departureDate);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query(value = "SELECT b FROM Booking b WHERE b.arrivalDate < :departure_date AND b.departureDate > :arrival_date ORDER BY b.arrivalDate, b.campsite")
+    Stream<Booking> streamOverlapping(@Param("arrival_date") LocalDate arrivalDate,
+                                      @Param("departure_date") LocalDate departureDate);
+
+    // Other bookings of the same site sharing a night with [arrivalDate, departureDate)
+    @Query(value = "SELECT COUNT(b) FROM Booking b WHERE b.campsite = :campsite AND b.arrivalDate < :departure_date AND b.departureDate > :arrival_date AND b.resourceId <> :resource_id")
+    long countOverlapping(@Param("campsite") int campsite,
+                          @Param("arrival_date") LocalDate arrivalDate,
+                          @Param("departure_date") LocalDate departureDate,
+                          @Param("resource_id") String resourceId);
+
+    @Modifying
+    @Query(value = "DELETE FROM Booking b WHERE b.resourceId = :resource_id")
+    int deleteByResourceId(@Param("resource_id") String resourceId);
+
+    boolean existsByResourceId(String resourceId);
+
+    // Single statement, removes nothing unless the booking is still at that version
+    @Modifying
+    @Query(value = "DELETE FROM Booking b WHERE b.resourceId = :resource_id AND b.version = :version")
+    int deleteByResourceIdAndVersion(@Param("resource_id") String resourceId, @Param("version") long version);
+}
@@ -0,0 +1,17 @@
+package com.upgrade.codechallenge.repository;
+
+import com.upgrade.codechallenge.model.Campsite;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.LockModeType;
+
+public interface CampsiteRepository extends JpaRepository<Campsite, Integer> {
+
+    // SELECT ... FOR UPDATE on the site's row, held until the transaction ends
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(value = "SELECT c FROM Campsite c WHERE c.id = :campsite")
+    Campsite lock(@Param("campsite") int campsite);
+}
@@ -4,22 +4,46 @@ import com.upgrade.codechallenge.model.Reservation;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
-import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface ReservationRepository extends JpaRepository<Reservation, Long> {
 
     List<Reservation> findByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqual(LocalDate arrivalDate, LocalDate departureDate);
 
+    List<Reservation> findByArrivalDateGreaterThanEqual(LocalDate arrivalDate);
+
+    // Cursor over the range for streamed listings, must be consumed inside a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<Reservation> streamByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqualOrderByArrivalDateAscCampsiteAsc(LocalDate arrivalDate, LocalDate departureDate);
+
     List<Reservation> findReservationByResourceId(String resourceId);
 
-    @Transactional
-    @Modifying(clearAutomatically = true)
-    @Query(value = "UPDATE Reservation r SET r.arrivalDate = :arrival_date,  r.departureDate = :departure_date WHERE r.id = :id")
-    void updateReservationDates(@Param("arrival_date") LocalDate arrivalDate,
-                           @Param("departure_date") LocalDate departureDate,
-                           @Param("id") Long id);
+    List<Reservation> findReservationByEmail(String email);
+
+    // Single statement, returns the number of nights removed
+    @Modifying
+    @Query(value = "DELETE FROM Reservation r WHERE r.resourceId = :resource_id")
+    int deleteByResourceId(@Param("resource_id") String resourceId);
+
+    boolean existsByResourceId(String resourceId);
+
+    // Moves every night of the reservation to the next version in one statement; a count
+    // short of the nights read means another transaction changed the reservation first
+    @Modifying
+    @Query(value = "UPDATE Reservation r SET r.version = r.version + 1 WHERE r.resourceId = :resource_id AND r.version = :version")
+    int incrementVersion(@Param("resource_id") String resourceId, @Param("version") long version);
+
+    // Single statement, removes nothing unless the reservation is still at that version
+    @Modifying
+    @Query(value = "DELETE FROM Reservation r WHERE r.resourceId = :resource_id AND r.version = :version")
+    int deleteByResourceIdAndVersion(@Param("resource_id") String resourceId, @Param("version") long version);
 }
\ No newline at end of file
@@ -0,0 +1,472 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.cache.ReservationCache;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.journal.ReservationJournal;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.util.BatchOutcome;
+import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.TransactionCallbacks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * Booking rules and in-memory occupancy shared by the storage modes. Subclasses decide
+ * how reservations are laid out in the database.
+ */
+public abstract class AbstractReservationService implements ReservationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractReservationService.class);
+
+    protected OccupancyIndex occupancyIndex;
+
+    protected AdmissionSlots admissionSlots;
+
+    protected ApplicationEventPublisher eventPublisher;
+
+    protected ReservationCache reservationCache;
+
+    protected HoldRegistry holdRegistry;
+
+    protected Waitlist waitlist;
+
+    // Only there with reservation.journal.enabled=true
+    @Autowired(required = false)
+    protected ReservationJournal journal;
+
+    // For replaying the journal at startup, outside any request
+    @Autowired(required = false)
+    protected PlatformTransactionManager transactionManager;
+
+    protected AbstractReservationService(OccupancyIndex occupancyIndex,
+                                         AdmissionSlots admissionSlots,
+                                         ApplicationEventPublisher eventPublisher,
+                                         ReservationCache reservationCache,
+                                         HoldRegistry holdRegistry,
+                                         Waitlist waitlist) {
+        this.occupancyIndex = occupancyIndex;
+        this.admissionSlots = admissionSlots;
+        this.eventPublisher = eventPublisher;
+        this.reservationCache = reservationCache;
+        this.holdRegistry = holdRegistry;
+        this.waitlist = waitlist;
+    }
+
+    // Nights stored from this day on, one row per night
+    protected abstract List<Reservation> findReservationsFrom(LocalDate arrivalDate);
+
+    // Nights within [arrivalDate, departureDate], one row per night
+    protected abstract List<Reservation> findReservations(LocalDate arrivalDate, LocalDate departureDate);
+
+    // Nights of one reservation, empty when it does not exist
+    protected abstract List<Reservation> findReservation(String resourceId);
+
+    // Same nights as findReservations, read through a cursor; runs inside a read-only transaction
+    protected abstract void forEachReservation(LocalDate arrivalDate, LocalDate departureDate, Consumer<Reservation> consumer);
+
+    // Validates and writes one reservation under the given resource id; runs inside a transaction
+    protected abstract Response insertReservation(Reservation body, String resourceId);
+
+    // Writes the given reservations, which already hold their resource ids, and returns
+    // their nights; runs inside the transaction of saveReservations
+    protected abstract List<Reservation> insertAll(List<Reservation> reservations);
+
+    // Deletes every row of the reservation in one statement, returns how many were removed
+    protected abstract int removeReservation(String resourceId);
+
+    // Brings the database to the journal's final state for every reservation it recorded:
+    // missing ones are written back, as with an in-memory database after a restart, moved
+    // ones rewritten and cancelled ones deleted. Each reservation is replayed in its own
+    // transaction, and one that conflicts with the database is logged and skipped.
+    protected void restoreJournal() {
+        if (this.journal == null) {
+            return;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(this.transactionManager);
+        int skipped = 0;
+        for (Reservation reservation : this.journal.recovered()) {
+            try {
+                transaction.execute(status -> this.replay(reservation));
+            } catch (RuntimeException e) {
+                skipped++;
+                logger.warn("Skipping journaled reservation {}, it conflicts with the database", reservation.getResourceId(), e);
+            }
+        }
+        for (String resourceId : this.journal.recoveredCancellations()) {
+            try {
+                transaction.execute(status -> this.removeReservation(resourceId));
+            } catch (RuntimeException e) {
+                skipped++;
+                logger.warn("Skipping journaled cancellation of {}", resourceId, e);
+            }
+        }
+        if (skipped > 0) {
+            logger.warn("{} journal entries could not be replayed", skipped);
+        }
+    }
+
+    private List<Reservation> replay(Reservation reservation) {
+        List<Reservation> nights = this.findReservation(reservation.getResourceId());
+        if (!nights.isEmpty()) {
+            LocalDate arrivalDate = nights.get(0).getArrivalDate();
+            LocalDate departureDate = nights.get(0).getDepartureDate();
+            for (Reservation night : nights) {
+                if (night.getArrivalDate().isBefore(arrivalDate)) arrivalDate = night.getArrivalDate();
+                if (night.getDepartureDate().isAfter(departureDate)) departureDate = night.getDepartureDate();
+            }
+            if (arrivalDate.equals(reservation.getArrivalDate())
+                    && departureDate.equals(reservation.getDepartureDate())
+                    && nights.get(0).getCampsite() == reservation.getCampsite()) {
+                return nights;
+            }
+            this.removeReservation(reservation.getResourceId());
+        }
+        return this.insertAll(Collections.singletonList(reservation));
+    }
+
+    protected void loadOccupancy() {
+        LocalDate today = LocalDate.now();
+        LocalDate from = today.minusDays(OccupancyIndex.HALF_WINDOW);
+        List<Reservation> reservations = this.findReservationsFrom(from);
+        this.occupancyIndex.load(from, reservations);
+        for (Reservation reservation : reservations) {
+            if (reservation.getArrivalDate().isAfter(today)) {
+                this.admissionSlots.tryClaim(reservation.getCampsite(),
+                        reservation.getArrivalDate(),
+                        reservation.getDepartureDate(),
+                        reservation.getResourceId());
+            }
+        }
+    }
+
+    @Override
+    public Response getReservations(LocalDate arrivalDate, LocalDate departureDate) {
+        Response response = validateWindow(arrivalDate, departureDate);
+        if (response != null) return response;
+        if(departureDate == null) {
+            departureDate = arrivalDate.plusDays(DEFAULT_WINDOW_DAYS);
+        }
+        if(this.occupancyIndex.covers(arrivalDate, departureDate)) {
+            return new Response(null, this.occupancyIndex.find(arrivalDate, departureDate), HttpStatus.OK);
+        }
+        return new Response(null,
+                this.findReservations(arrivalDate, departureDate),
+                HttpStatus.OK);
+    }
+
+    @Override
+    public Response getReservation(String id) {
+        List<Reservation> reservations = this.reservationCache.get(id);
+        if(reservations == null) {
+            long generation = this.reservationCache.generation();
+            reservations = this.findReservation(id);
+            if(reservations == null || reservations.size() == 0) {
+                return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+            }
+            this.reservationCache.put(id, reservations, generation);
+        }
+        return new Response(null,
+                reservations,
+                HttpStatus.OK);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Response streamReservations(LocalDate arrivalDate, LocalDate departureDate, Consumer<Reservation> consumer) {
+        Response response = validateWindow(arrivalDate, departureDate);
+        if (response != null) return response;
+        if(departureDate == null) {
+            departureDate = arrivalDate.plusDays(DEFAULT_WINDOW_DAYS);
+        }
+        if(this.occupancyIndex.covers(arrivalDate, departureDate)) {
+            this.occupancyIndex.find(arrivalDate, departureDate).forEach(consumer);
+        } else {
+            this.forEachReservation(arrivalDate, departureDate, consumer);
+        }
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    @Override
+    @Transactional
+    public Response saveReservations(List<Reservation> bodies) {
+        if(bodies == null || bodies.isEmpty()) {
+            return new Response("You must specify at least one reservation.", null, HttpStatus.BAD_REQUEST, "batch_empty");
+        }
+        if(bodies.size() > MAX_BATCH_SIZE) {
+            return new Response("A batch can hold at most " + MAX_BATCH_SIZE + " reservations.", null, HttpStatus.BAD_REQUEST, "batch_size");
+        }
+        List<BatchOutcome> outcomes = new ArrayList<>(bodies.size());
+        List<Reservation> accepted = new ArrayList<>();
+        // Nights taken by earlier items, by site; the first item asking for a night gets it
+        Map<Integer, Set<LocalDate>> batchNights = new HashMap<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            Reservation body = bodies.get(i);
+            Response rejected = (body == null)
+                    ? new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST, "missing_arrival_date")
+                    : validateRequiredDates(body);
+            if (rejected == null) rejected = validateDates(body);
+            if (rejected == null) rejected = validateCampsite(body);
+            if (rejected == null && overlaps(batchNights.get(body.getCampsite()), body)) {
+                rejected = new Response("The camp is already reserved for that date range.", null, HttpStatus.BAD_REQUEST, "batch_overlap");
+            }
+            String resourceId = UUID.randomUUID().toString();
+            if (rejected == null && !this.admissionSlots.tryClaim(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate(), resourceId)) {
+                rejected = new Response("The camp is already reserved for that date range.", null, HttpStatus.BAD_REQUEST, "batch_overlap");
+            }
+            if (rejected != null) {
+                outcomes.add(new BatchOutcome(i, rejected));
+                continue;
+            }
+            TransactionCallbacks.afterRollback(() -> this.admissionSlots.release(resourceId));
+            Set<LocalDate> siteNights = batchNights.computeIfAbsent(body.getCampsite(), site -> new HashSet<>());
+            for (LocalDate day = body.getArrivalDate(); day.isBefore(body.getDepartureDate()); day = day.plusDays(1)) {
+                siteNights.add(day);
+            }
+            accepted.add(new Reservation(body.getArrivalDate(), body.getDepartureDate(), body.getName(), body.getEmail(), resourceId, body.getCampsite()));
+            outcomes.add(new BatchOutcome(i, new Response(null, resourceId, HttpStatus.OK)));
+        }
+        if (!accepted.isEmpty()) {
+            // Nothing is written unless every accepted item is
+            List<Reservation> nights;
+            try {
+                nights = this.insertAll(accepted);
+            } catch (Exception e) {
+                throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+            }
+            this.journalCreated(accepted);
+            TransactionCallbacks.afterCommit(() -> {
+                this.occupancyIndex.put(nights);
+                for (Reservation reservation : accepted) {
+                    this.publishChange(new ReservationChangedEvent(reservation.getResourceId(),
+                            reservation.getArrivalDate(), reservation.getDepartureDate()));
+                }
+            });
+        }
+        return new Response(null, outcomes, HttpStatus.OK);
+    }
+
+    @Override
+    public Response holdReservation(Reservation body, int minutes) {
+        Response response = validateRequiredDates(body);
+        if (response != null) return response;
+        response = validateDates(body);
+        if (response != null) return response;
+        response = validateCampsite(body);
+        if (response != null) return response;
+        if(minutes < 1 || minutes > MAX_HOLD_MINUTES) {
+            return new Response("A hold can last from 1 to " + MAX_HOLD_MINUTES + " minutes.", null, HttpStatus.BAD_REQUEST, "hold_minutes");
+        }
+        HoldRegistry.Hold hold = this.holdRegistry.tryHold(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate(), Duration.ofMinutes(minutes));
+        if(hold == null) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+        return new Response(null, hold.getId(), HttpStatus.OK);
+    }
+
+    @Override
+    @Transactional
+    public Response confirmHold(String holdId, Reservation guest) {
+        HoldRegistry.Hold hold = this.holdRegistry.take(holdId);
+        if(hold == null) {
+            return new Response("Hold does not exist or has expired.", null, HttpStatus.NOT_FOUND);
+        }
+        // The nights are already claimed by the hold id, which becomes the reservation id
+        Reservation body = new Reservation(hold.getArrivalDate(), hold.getDepartureDate(), guest.getName(), guest.getEmail());
+        body.setCampsite(hold.getCampsite());
+        // A conflict thrown below, or a failed commit, gives the nights back and tells the waitlist
+        TransactionCallbacks.afterRollback(() -> this.holdRegistry.giveBack(hold));
+        Response response = this.insertReservation(body, holdId);
+        if(response.getError() != null) {
+            this.holdRegistry.giveBack(hold);
+        }
+        return response;
+    }
+
+    @Override
+    public Response releaseHold(String holdId) {
+        if(!this.holdRegistry.release(holdId)) {
+            return new Response("Hold does not exist or has expired.", null, HttpStatus.NOT_FOUND);
+        }
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    @Override
+    public Response joinWaitlist(Reservation body) {
+        Response response = validateRequiredDates(body);
+        if (response != null) return response;
+        response = validateDates(body);
+        if (response != null) return response;
+        response = validateCampsite(body);
+        if (response != null) return response;
+        Waitlist.Waiter waiter = this.waitlist.join(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate());
+        if(waiter == null) {
+            return new Response("The waitlist is full, please try again later.", null, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new Response(null, waiter, HttpStatus.OK);
+    }
+
+    @Override
+    public Response getWaitlistEntry(String id) {
+        Waitlist.Waiter waiter = this.waitlist.find(id);
+        if(waiter == null) {
+            return new Response("Waitlist entry does not exist.", null, HttpStatus.NOT_FOUND);
+        }
+        return new Response(null, waiter, HttpStatus.OK);
+    }
+
+    @Override
+    @Transactional
+    public Response updateReservation(String id, Reservation reservation) {
+        return this.updateReservation(id, reservation, null);
+    }
+
+    @Override
+    @Transactional
+    public Response deleteReservation(String id) {
+        return this.deleteReservation(id, null);
+    }
+
+    @Override
+    public Response leaveWaitlist(String id) {
+        if(!this.waitlist.leave(id)) {
+            return new Response("Waitlist entry does not exist.", null, HttpStatus.NOT_FOUND);
+        }
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    protected Response validateWindow(LocalDate arrivalDate, LocalDate departureDate) {
+        if(arrivalDate == null) {
+            return new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST, "missing_arrival_date");
+        }
+        if(departureDate != null && arrivalDate.isAfter(departureDate)) {
+            return new Response("Arrival date is greater than departure date.", null, HttpStatus.BAD_REQUEST, "arrival_after_departure");
+        }
+        return null;
+    }
+
+    protected Response validateEmail(String email) {
+        if(email == null || email.trim().isEmpty()) {
+            return new Response("You must specify an email.", null, HttpStatus.BAD_REQUEST, "missing_email");
+        }
+        return null;
+    }
+
+    protected Response validateRequiredDates(Reservation reservation) {
+        if(reservation.getArrivalDate() == null) {
+            return new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST, "missing_arrival_date");
+        }
+        if(reservation.getDepartureDate() == null) {
+            return new Response("You must specify a departure date.", null, HttpStatus.BAD_REQUEST, "missing_departure_date");
+        }
+        return null;
+    }
+
+    protected Response validateDates(Reservation reservation) {
+        if(reservation.getArrivalDate().isAfter(reservation.getDepartureDate())) {
+            return new Response("The arrival date is greater than departure date.", null, HttpStatus.BAD_REQUEST, "arrival_after_departure");
+        }
+        LocalDate now = LocalDate.now();
+        long daysBetween = DAYS.between(now, reservation.getArrivalDate());
+        if(daysBetween < 1 || daysBetween > 30) {
+            return new Response("The campsite can be reserved minimum 1 day(s) ahead of arrival and up to 1 month in advance.", null, HttpStatus.BAD_REQUEST, "advance_window");
+        }
+        daysBetween = DAYS.between(reservation.getArrivalDate(), reservation.getDepartureDate());
+        if(daysBetween > 3) {
+            return new Response("The campsite can be reserved for max 3 days.", null, HttpStatus.BAD_REQUEST, "max_nights");
+        }
+        return null;
+    }
+
+    protected Response validateCampsite(Reservation reservation) {
+        int campsites = this.admissionSlots.getCampsites();
+        if(reservation.getCampsite() < 1 || reservation.getCampsite() > campsites) {
+            return new Response("The campsite must be between 1 and " + campsites + ".", null, HttpStatus.BAD_REQUEST, "campsite_range");
+        }
+        return null;
+    }
+
+    // Null when the reservation is still at the version the caller read, or no version was given
+    protected static Response validateVersion(Long expectedVersion, long version) {
+        if(expectedVersion != null && expectedVersion != version) {
+            return versionMismatch();
+        }
+        return null;
+    }
+
+    static Response versionMismatch() {
+        return new Response("The reservation was modified by another request.", null, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    private static boolean overlaps(Set<LocalDate> nights, Reservation reservation) {
+        if (nights == null) {
+            return false;
+        }
+        for (LocalDate day = reservation.getArrivalDate(); day.isBefore(reservation.getDepartureDate()); day = day.plusDays(1)) {
+            if (nights.contains(day)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Call from an afterCommit callback, once the occupancy index already reflects the write
+    protected void publishChange(ReservationChangedEvent event) {
+        this.eventPublisher.publishEvent(event);
+    }
+
+    // The journal is written ahead of the database: the command goes to disk just before the
+    // transaction commits, and a journal failure rolls the transaction back. If the commit
+    // itself fails, the command is aborted so that recovery leaves it out.
+    protected void journalCreated(List<Reservation> reservations) {
+        this.journal((journal, transaction) -> journal.created(transaction, reservations));
+    }
+
+    protected void journalMoved(String resourceId, LocalDate arrivalDate, LocalDate departureDate) {
+        this.journal((journal, transaction) -> journal.moved(transaction, resourceId, arrivalDate, departureDate));
+    }
+
+    protected void journalCancelled(String resourceId) {
+        this.journal((journal, transaction) -> journal.cancelled(transaction, resourceId));
+    }
+
+    private void journal(ObjLongConsumer<ReservationJournal> command) {
+        ReservationJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        long transaction = journal.begin();
+        TransactionCallbacks.beforeCommit(() -> command.accept(journal, transaction));
+        TransactionCallbacks.afterRollback(() -> journal.aborted(transaction));
+    }
+
+    // Releases the owner's nights in [from, to) that are not part of [keepFrom, keepTo)
+    protected void releaseOutside(String owner, int campsite, LocalDate from, LocalDate to, LocalDate keepFrom, LocalDate keepTo) {
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            if (day.isBefore(keepFrom) || !day.isBefore(keepTo)) {
+                this.admissionSlots.release(campsite, day, day.plusDays(1), owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.upgrade.codechallenge.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free claims over the bookable nights. A reservation claims each of its nights
+ * with a CAS before touching the database, so concurrent requests for the same dates
+ * are rejected without paying for a failed insert and a rollback. Each campsite has
+ * its own block of slots, so bookings for different sites never touch the same slot.
+ */
+@Component
+public class AdmissionSlots {
+
+    // Bookable nights span 33 days from today, so two live nights never share a slot
+    static final int CAPACITY = 64;
+
+    private final int campsites;
+
+    private final AtomicReferenceArray<Claim> slots;
+
+    public AdmissionSlots() {
+        this(1);
+    }
+
+    @Autowired
+    public AdmissionSlots(@Value("${reservation.campsites:1}") int campsites) {
+        this.campsites = campsites;
+        this.slots = new AtomicReferenceArray<>(campsites * CAPACITY);
+    }
+
+    // Sites are numbered from 1 to getCampsites()
+    public int getCampsites() {
+        return campsites;
+    }
+
+    public boolean tryClaim(int campsite, LocalDate arrivalDate, LocalDate departureDate, String owner) {
+        int base = this.base(campsite);
+        long from = arrivalDate.toEpochDay();
+        long to = departureDate.toEpochDay();
+        boolean[] acquired = new boolean[(int) Math.max(0, to - from)];
+        for (long day = from; day < to; day++) {
+            int claimed = this.claim(base, day, owner);
+            if (claimed < 0) {
+                for (long d = from; d < day; d++) {
+                    if (acquired[(int) (d - from)]) {
+                        this.release(base, d, owner);
+                    }
+                }
+                return false;
+            }
+            acquired[(int) (day - from)] = claimed > 0;
+        }
+        return true;
+    }
+
+    public void release(int campsite, LocalDate arrivalDate, LocalDate departureDate, String owner) {
+        int base = this.base(campsite);
+        for (long day = arrivalDate.toEpochDay(); day < departureDate.toEpochDay(); day++) {
+            this.release(base, day, owner);
+        }
+    }
+
+    // Releases the owner's nights on every site
+    public void release(String owner) {
+        for (int slot = 0; slot < this.slots.length(); slot++) {
+            Claim current = this.slots.get(slot);
+            if (current != null && current.owner.equals(owner)) {
+                this.slots.compareAndSet(slot, current, null);
+            }
+        }
+    }
+
+    // 1 when the night was claimed now, 0 when the owner already had it, -1 when taken
+    private int claim(int base, long day, String owner) {
+        int slot = base + slot(day);
+        Claim claim = new Claim(day, owner);
+        while (true) {
+            Claim current = this.slots.get(slot);
+            if (current != null && current.day == day) {
+                return current.owner.equals(owner) ? 0 : -1;
+            }
+            // Empty, or left over from a night that is long gone
+            if (this.slots.compareAndSet(slot, current, claim)) {
+                return 1;
+            }
+        }
+    }
+
+    private void release(int base, long day, String owner) {
+        int slot = base + slot(day);
+        Claim current = this.slots.get(slot);
+        if (current != null && current.day == day && current.owner.equals(owner)) {
+            this.slots.compareAndSet(slot, current, null);
+        }
+    }
+
+    // First slot of the campsite's block
+    private int base(int campsite) {
+        if (campsite < 1 || campsite > this.campsites) {
+            throw new IllegalArgumentException("Unknown campsite " + campsite);
+        }
+        return (campsite - 1) * CAPACITY;
+    }
+
+    private static int slot(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) CAPACITY);
+    }
+
+    private static final class Claim {
+        private final long day;
+        private final String owner;
+
+        private Claim(long day, String owner) {
+            this.day = day;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.model.Booking;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.repository.BookingRepository;
+import com.upgrade.codechallenge.repository.ReservationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Folds the per-night rows left by the daily storage mode into one booking per
+ * resource id, so a database can be switched to reservation.storage=range in place.
+ */
+@Component
+@ConditionalOnProperty(name = "reservation.storage", havingValue = "range")
+public class BookingMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingMigration.class);
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    public BookingMigration(ReservationRepository reservationRepository, BookingRepository bookingRepository) {
+        this.reservationRepository = reservationRepository;
+        this.bookingRepository = bookingRepository;
+    }
+
+    @Transactional
+    public int migrate() {
+        List<Reservation> nights = this.reservationRepository.findAll(Sort.by("resourceId", "arrivalDate"));
+        if (nights.isEmpty()) {
+            return 0;
+        }
+        List<Booking> bookings = new ArrayList<>();
+        Booking current = null;
+        for (Reservation night : nights) {
+            if (current == null || !current.getResourceId().equals(night.getResourceId())) {
+                current = new Booking(night.getArrivalDate(), night.getDepartureDate(),
+                        night.getName(), night.getEmail(), night.getResourceId(), night.getCampsite());
+                bookings.add(current);
+            } else if (night.getDepartureDate().isAfter(current.getDepartureDate())) {
+                current.setDepartureDate(night.getDepartureDate());
+            }
+        }
+        bookings.removeIf(booking -> this.bookingRepository.findByResourceId(booking.getResourceId()) != null);
+        this.bookingRepository.saveAll(bookings);
+        this.reservationRepository.deleteAllInBatch();
+        logger.info("Migrated {} nightly rows into {} bookings", nights.size(), bookings.size());
+        return bookings.size();
+    }
+}
@@ -0,0 +1,149 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.event.HoldReleasedEvent;
+import com.upgrade.codechallenge.util.TimingWheel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live holds by id. A hold owns the admission slots of its nights until it is
+ * confirmed, released or runs out; expiry is driven by a timing wheel, so no scan
+ * over the holds is ever needed.
+ */
+@Component
+public class HoldRegistry implements DisposableBean, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(HoldRegistry.class);
+
+    public static final class Hold {
+        private final String id;
+        private final int campsite;
+        private final LocalDate arrivalDate;
+        private final LocalDate departureDate;
+        private volatile TimingWheel.Timeout timeout;
+
+        private Hold(String id, int campsite, LocalDate arrivalDate, LocalDate departureDate) {
+            this.id = id;
+            this.campsite = campsite;
+            this.arrivalDate = arrivalDate;
+            this.departureDate = departureDate;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getCampsite() {
+            return campsite;
+        }
+
+        public LocalDate getArrivalDate() {
+            return arrivalDate;
+        }
+
+        public LocalDate getDepartureDate() {
+            return departureDate;
+        }
+    }
+
+    // One second ticks; a 512 slot wheel turns about every eight and a half minutes
+    private final TimingWheel wheel = new TimingWheel(1, TimeUnit.SECONDS, 512, "reservation-holds");
+
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+
+    private final LongAdder expiryFailures = new LongAdder();
+
+    private final AdmissionSlots admissionSlots;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public HoldRegistry(AdmissionSlots admissionSlots, ApplicationEventPublisher eventPublisher) {
+        this.admissionSlots = admissionSlots;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Claims the site's nights under a new hold id for ttl; null when one of them is taken
+    public Hold tryHold(int campsite, LocalDate arrivalDate, LocalDate departureDate, Duration ttl) {
+        String id = UUID.randomUUID().toString();
+        if (!this.admissionSlots.tryClaim(campsite, arrivalDate, departureDate, id)) {
+            return null;
+        }
+        Hold hold = new Hold(id, campsite, arrivalDate, departureDate);
+        this.holds.put(id, hold);
+        hold.timeout = this.wheel.schedule(() -> this.expire(hold), ttl.toMillis(), TimeUnit.MILLISECONDS);
+        return hold;
+    }
+
+    // Removes the hold for confirmation; the caller owns its claims from then on.
+    // Null when the hold does not exist or already ran out.
+    public Hold take(String id) {
+        Hold hold = this.holds.remove(id);
+        // Without a timeout yet, the expiry task finds the hold gone and does nothing
+        if (hold != null && hold.timeout != null) {
+            hold.timeout.cancel();
+        }
+        return hold;
+    }
+
+    public boolean release(String id) {
+        Hold hold = this.take(id);
+        if (hold == null) {
+            return false;
+        }
+        this.giveBack(hold);
+        return true;
+    }
+
+    private void expire(Hold hold) {
+        try {
+            if (this.holds.remove(hold.getId(), hold)) {
+                this.giveBack(hold);
+            }
+        } catch (RuntimeException e) {
+            this.expiryFailures.increment();
+            logger.error("Hold expiry task failed", e);
+        }
+    }
+
+    // Frees the nights of a hold taken out of the registry
+    public void giveBack(Hold hold) {
+        this.admissionSlots.release(hold.getId());
+        this.eventPublisher.publishEvent(new HoldReleasedEvent(hold.getId(), hold.getArrivalDate(), hold.getDepartureDate()));
+    }
+
+    public boolean contains(String id) {
+        return this.holds.containsKey(id);
+    }
+
+    public int size() {
+        return this.holds.size();
+    }
+
+    public long getExpiryFailureCount() {
+        return this.expiryFailures.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("reservation.holds.expiry.failures", this, HoldRegistry::getExpiryFailureCount).register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        this.wheel.stop();
+    }
+}
@@ -0,0 +1,173 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.model.Reservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory view of the occupied days around today, used to answer availability
+ * queries without going to the database. Each campsite has its own ring and lock, so
+ * writes for different sites never wait on each other; each slot of a ring holds the
+ * epoch day it belongs to and the reservation row that owns that night.
+ */
+@Component
+public class OccupancyIndex {
+
+    // Days covered before and after today. Bookings are taken up to 33 days ahead,
+    // so a write can never overwrite a slot that is still inside the covered window.
+    static final int HALF_WINDOW = 64;
+    static final int CAPACITY = HALF_WINDOW * 2;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Site[] sites;
+    private volatile long origin = Long.MAX_VALUE;
+
+    public OccupancyIndex() {
+        this(1);
+    }
+
+    @Autowired
+    public OccupancyIndex(@Value("${reservation.campsites:1}") int campsites) {
+        this.sites = new Site[campsites];
+        for (int i = 0; i < campsites; i++) {
+            this.sites[i] = new Site();
+        }
+    }
+
+    public void load(LocalDate from, Collection<Reservation> reservations) {
+        for (Site site : this.sites) {
+            site.lock.writeLock().lock();
+        }
+        try {
+            for (Site site : this.sites) {
+                Arrays.fill(site.days, EMPTY);
+                Arrays.fill(site.rows, null);
+            }
+            for (Reservation reservation : reservations) {
+                this.site(reservation).set(reservation);
+            }
+            this.origin = from.toEpochDay();
+        } finally {
+            for (Site site : this.sites) {
+                site.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public boolean isLoaded() {
+        return this.origin != Long.MAX_VALUE;
+    }
+
+    public boolean covers(LocalDate arrivalDate, LocalDate departureDate) {
+        long today = LocalDate.now().toEpochDay();
+        return this.isLoaded()
+                && arrivalDate.toEpochDay() >= Math.max(this.origin, today - HALF_WINDOW)
+                && departureDate.toEpochDay() <= today + HALF_WINDOW;
+    }
+
+    // Same semantics as findByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqual:
+    // the nights of every site, by night and then by site
+    public List<Reservation> find(LocalDate arrivalDate, LocalDate departureDate) {
+        List<Reservation> result = new ArrayList<>();
+        // Read locks are always taken in site order, and writers hold a single one
+        for (Site site : this.sites) {
+            site.lock.readLock().lock();
+        }
+        try {
+            for (long day = arrivalDate.toEpochDay(); day < departureDate.toEpochDay(); day++) {
+                int slot = slot(day);
+                for (Site site : this.sites) {
+                    if (site.days[slot] == day) {
+                        result.add(site.rows[slot]);
+                    }
+                }
+            }
+        } finally {
+            for (Site site : this.sites) {
+                site.lock.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    // Holds one site's lock at a time; the rows of a reservation are all on its site
+    public void put(Collection<Reservation> reservations) {
+        Site locked = null;
+        try {
+            for (Reservation reservation : reservations) {
+                Site site = this.site(reservation);
+                if (site != locked) {
+                    if (locked != null) {
+                        locked.lock.writeLock().unlock();
+                        locked = null;
+                    }
+                    site.lock.writeLock().lock();
+                    locked = site;
+                }
+                site.set(reservation);
+            }
+        } finally {
+            if (locked != null) {
+                locked.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Returns the nights that were dropped from the index
+    public List<Reservation> remove(String resourceId) {
+        List<Reservation> removed = new ArrayList<>();
+        for (Site site : this.sites) {
+            site.lock.writeLock().lock();
+            try {
+                for (int slot = 0; slot < CAPACITY; slot++) {
+                    if (site.days[slot] != EMPTY && resourceId.equals(site.rows[slot].getResourceId())) {
+                        removed.add(site.rows[slot]);
+                        site.days[slot] = EMPTY;
+                        site.rows[slot] = null;
+                    }
+                }
+            } finally {
+                site.lock.writeLock().unlock();
+            }
+            // A reservation lives on a single site
+            if (!removed.isEmpty()) {
+                break;
+            }
+        }
+        return removed;
+    }
+
+    private Site site(Reservation reservation) {
+        return this.sites[reservation.getCampsite() - 1];
+    }
+
+    private static int slot(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) CAPACITY);
+    }
+
+    private static final class Site {
+        private final long[] days = new long[CAPACITY];
+        private final Reservation[] rows = new Reservation[CAPACITY];
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private Site() {
+            Arrays.fill(this.days, EMPTY);
+        }
+
+        private void set(Reservation reservation) {
+            long day = reservation.getArrivalDate().toEpochDay();
+            int slot = slot(day);
+            this.days[slot] = day;
+            this.rows[slot] = reservation;
+        }
+    }
+}
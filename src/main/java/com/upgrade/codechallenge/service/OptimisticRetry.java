@@ -0,0 +1,49 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.util.Response;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs an update or delete again when its transaction lost a race on a row version.
+ * It sits outside the transaction, so each attempt starts a new one and reads the rows
+ * afresh. A call made with an expected version is not retried: the caller's copy is
+ * stale, so it gets a 412 straight away.
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class OptimisticRetry {
+
+    private final int maxAttempts;
+
+    public OptimisticRetry(@Value("${reservation.optimistic.max-attempts:3}") int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    @Around("execution(* com.upgrade.codechallenge.service.ReservationService.updateReservation(..))"
+            + " || execution(* com.upgrade.codechallenge.service.ReservationService.deleteReservation(..))")
+    public Object retry(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object[] args = joinPoint.getArgs();
+        boolean conditional = args[args.length - 1] instanceof Long;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return joinPoint.proceed();
+            } catch (OptimisticLockingFailureException e) {
+                if (conditional) {
+                    return AbstractReservationService.versionMismatch();
+                }
+                if (attempt >= this.maxAttempts) {
+                    return new Response("The reservation is being modified by another request, please try again.", null, HttpStatus.CONFLICT);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.upgrade.codechallenge.service;
+
+import com.upgrade.codechallenge.cache.ReservationCache;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.exception.InternalServerErrorException;
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.model.Booking;
+import com.upgrade.codechallenge.model.Campsite;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.repository.BookingRepository;
+import com.upgrade.codechallenge.repository.CampsiteRepository;
+import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.TransactionCallbacks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Storage mode selected with reservation.storage=range: a reservation is a single
+ * booking row holding its whole interval. Overlaps are rejected by the admission
+ * slots and by a range-conflict query before the row is written. The admission
+ * slots only cover this instance, so every write first locks the site's campsite
+ * row: the conflict query and the write then run alone for that site across all
+ * instances sharing the database.
+ */
+@Service
+@ConditionalOnProperty(name = "reservation.storage", havingValue = "range")
+public class RangeReservationServiceImpl extends AbstractReservationService {
+
+    @Autowired
+    private BookingRepository bookingRepository;
+
+    @Autowired
+    private BookingMigration bookingMigration;
+
+    @Autowired
+    private CampsiteRepository campsiteRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public RangeReservationServiceImpl(BookingRepository bookingRepository,
+                                       BookingMigration bookingMigration,
+                                       CampsiteRepository campsiteRepository,
+                                       OccupancyIndex occupancyIndex,
+                                       AdmissionSlots admissionSlots,
+                                       ApplicationEventPublisher eventPublisher,
+                                       ReservationCache reservationCache,
+                                       HoldRegistry holdRegistry,
+                                       Waitlist waitlist) {
+        super(occupancyIndex, admissionSlots, eventPublisher, reservationCache, holdRegistry, waitlist);
+        this.bookingRepository = bookingRepository;
+        this.bookingMigration = bookingMigration;
+        this.campsiteRepository = campsiteRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.createCampsites();
+        this.bookingMigration.migrate();
+        this.restoreJournal();
+        this.loadOccupancy();
+    }
+
+    // The rows locked by writes; another instance may be creating them at the same time
+    private void createCampsites() {
+        for (int campsite = 1; campsite <= this.admissionSlots.getCampsites(); campsite++) {
+            if (!this.campsiteRepository.existsById(campsite)) {
+                try {
+                    this.campsiteRepository.save(new Campsite(campsite));
+                } catch (DataIntegrityViolationException e) {
+                    // Created by the other instance
+                }
+            }
+        }
+    }
+
+    // Held until the transaction ends; sites are always locked in ascending order
+    private void lockCampsite(int campsite) {
+        this.campsiteRepository.lock(campsite);
+    }
+
+    @Override
+    protected List<Reservation> findReservationsFrom(LocalDate arrivalDate) {
+        List<Reservation> reservations = new ArrayList<>();
+        for (Booking booking : this.bookingRepository.findByDepartureDateGreaterThan(arrivalDate)) {
+            for (Reservation night : booking.toReservations()) {
+                if (!night.getArrivalDate().isBefore(arrivalDate)) {
+                    reservations.add(night);
+                }
+            }
+        }
+        return reservations;
+    }
+
+    @Override
+    protected List<Reservation> findReservations(LocalDate arrivalDate, LocalDate departureDate) {
+        List<Reservation> reservations = new ArrayList<>();
+        for (Booking booking : this.bookingRepository.findOverlapping(arrivalDate, departureDate)) {
+            for (Reservation night : booking.toReservations()) {
+                if (!night.getArrivalDate().isBefore(arrivalDate) && !night.getDepartureDate().isAfter(departureDate)) {
+                    reservations.add(night);
+                }
+            }
+        }
+        return reservations;
+    }
+
+    @Override
+    protected List<Reservation> findReservation(String resourceId) {
+        Booking booking = this.bookingRepository.findByResourceId(resourceId);
+        return booking == null ? new ArrayList<>() : booking.toReservations();
+    }
+
+    @Override
+    protected void forEachReservation(LocalDate arrivalDate, LocalDate departureDate, Consumer<Reservation> consumer) {
+        try (Stream<Booking> bookings = this.bookingRepository.streamOverlapping(arrivalDate, departureDate)) {
+            bookings.forEach(booking -> {
+                for (Reservation night : booking.toReservations()) {
+                    if (!night.getArrivalDate().isBefore(arrivalDate) && !night.getDepartureDate().isAfter(departureDate)) {
+                        consumer.accept(night);
+                    }
+                }
+                this.entityManager.detach(booking);
+            });
+        }
+    }
+
+    @Override
+    protected List<Reservation> insertAll(List<Reservation> reservations) {
+        TreeSet<Integer> campsites = new TreeSet<>();
+        for (Reservation reservation : reservations) {
+            campsites.add(reservation.getCampsite());
+        }
+        campsites.forEach(this::lockCampsite);
+        List<Booking> bookings = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            if(this.bookingRepository.countOverlapping(reservation.getCampsite(), reservation.getArrivalDate(),
+                    reservation.getDepartureDate(), reservation.getResourceId()) > 0) {
+                throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+            }
+            bookings.add(new Booking(reservation.getArrivalDate(), reservation.getDepartureDate(),
+                    reservation.getName(), reservation.getEmail(), reservation.getResourceId(), reservation.getCampsite()));
+        }
+        this.bookingRepository.saveAll(bookings);
+        this.bookingRepository.flush();
+        List<Reservation> nights = new ArrayList<>();
+        for (Booking booking : bookings) {
+            nights.addAll(booking.toReservations());
+        }
+        return nights;
+    }
+
+    @Override
+    protected int removeReservation(String resourceId) {
+        return this.bookingRepository.deleteByResourceId(resourceId);
+    }
+
+    @Override
+    @Transactional
+    public Response saveReservation(Reservation body) {
+        return this.insertReservation(body, UUID.randomUUID().toString());
+    }
+
+    @Override
+    protected Response insertReservation(Reservation body, String resourceId) {
+        Response x = validateRequiredDates(body);
+        if (x != null) return x;
+        x = validateDates(body);
+        if (x != null) return x;
+        x = validateCampsite(body);
+        if (x != null) return x;
+        if(!this.admissionSlots.tryClaim(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate(), resourceId)) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+        TransactionCallbacks.afterRollback(() -> this.admissionSlots.release(resourceId));
+        this.journalCreated(Collections.singletonList(new Reservation(body.getArrivalDate(), body.getDepartureDate(),
+                body.getName(), body.getEmail(), resourceId, body.getCampsite())));
+        try {
+            this.lockCampsite(body.getCampsite());
+            if(this.bookingRepository.countOverlapping(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate(), resourceId) > 0) {
+                throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+            }
+            Booking booking = new Booking(body.getArrivalDate(), body.getDepartureDate(),
+                    body.getName(), body.getEmail(), resourceId, body.getCampsite());
+            this.bookingRepository.saveAndFlush(booking);
+            TransactionCallbacks.afterCommit(() -> {
+                this.occupancyIndex.put(booking.toReservations());
+                this.publishChange(new ReservationChangedEvent(resourceId, body.getArrivalDate(), body.getDepartureDate()));
+            });
+            return new Response(null, resourceId, HttpStatus.OK);
+        } catch (Exception e) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+    }
+
+
+    @Override
+    public Response getReservationsByEmail(String email) {
+        Response response = validateEmail(email);
+        if(response != null)
+            return response;
+        List<Reservation> reservations = new ArrayList<>();
+        for (Booking booking : this.bookingRepository.findByEmailOrderByArrivalDate(email)) {
+            reservations.addAll(booking.toReservations());
+        }
+        return new Response(null, reservations, HttpStatus.OK);
+    }
+
+    @Override
+    @Transactional
+    public Response updateReservation(String id, Reservation reservation, Long expectedVersion) {
+        Booking booking = this.bookingRepository.findByResourceId(id);
+        if(booking == null) {
+            return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+        }
+        Response response = validateVersion(expectedVersion, booking.getVersion());
+        if (response != null) return response;
+        response = validateDates(reservation);
+        if (response != null) return response;
+        LocalDate arrivalDate = reservation.getArrivalDate();
+        LocalDate departureDate = reservation.getDepartureDate();
+        // A reservation keeps its site when its dates change
+        int campsite = booking.getCampsite();
+        LocalDate previousArrival = booking.getArrivalDate();
+        LocalDate previousDeparture = booking.getDepartureDate();
+        if(!this.admissionSlots.tryClaim(campsite, arrivalDate, departureDate, id)) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+        TransactionCallbacks.afterRollback(() -> this.releaseOutside(id, campsite, arrivalDate, departureDate, previousArrival, previousDeparture));
+        this.journalMoved(id, arrivalDate, departureDate);
+        try {
+            this.lockCampsite(campsite);
+            if(this.bookingRepository.countOverlapping(campsite, arrivalDate, departureDate, id) > 0) {
+                throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+            }
+            // The row is updated by id and version, so a concurrent writer fails here
+            booking.setArrivalDate(arrivalDate);
+            booking.setDepartureDate(departureDate);
+            this.bookingRepository.flush();
+            List<Reservation> moved = booking.toReservations();
+            TransactionCallbacks.afterCommit(() -> {
+                this.occupancyIndex.remove(id);
+                this.occupancyIndex.put(moved);
+                this.releaseOutside(id, campsite, previousArrival, previousDeparture, arrivalDate, departureDate);
+                this.publishChange(new ReservationChangedEvent(id, previousArrival, previousDeparture));
+                this.publishChange(new ReservationChangedEvent(id, arrivalDate, departureDate));
+            });
+            return new Response(null, id, HttpStatus.OK);
+        } catch (OptimisticLockingFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+    }
+
+    @Override
+    @Transactional
+    public Response deleteReservation(String id, Long expectedVersion) {
+        if(expectedVersion != null) {
+            return this.deleteVersioned(id, expectedVersion);
+        }
+        int deleted;
+        try {
+            deleted = this.bookingRepository.deleteByResourceId(id);
+        } catch (Exception e) {
+            throw new InternalServerErrorException("There is an internal problem in the server.");
+        }
+        if(deleted == 0) {
+            return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+        }
+        this.afterDelete(id);
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    // Bulk delete that only matches the booking at the expected version; when nothing
+    // matched, a second lookup tells a missing reservation from a modified one
+    private Response deleteVersioned(String id, long expectedVersion) {
+        int deleted;
+        try {
+            deleted = this.bookingRepository.deleteByResourceIdAndVersion(id, expectedVersion);
+        } catch (Exception e) {
+            throw new InternalServerErrorException("There is an internal problem in the server.");
+        }
+        if(deleted == 0) {
+            if(!this.bookingRepository.existsByResourceId(id)) {
+                return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+            }
+            return versionMismatch();
+        }
+        this.afterDelete(id);
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    private void afterDelete(String id) {
+        this.journalCancelled(id);
+        TransactionCallbacks.afterCommit(() -> {
+            // Nights outside the index are not known here, so the event then covers every window
+            List<Reservation> removed = this.occupancyIndex.remove(id);
+            this.admissionSlots.release(id);
+            this.publishChange(ReservationChangedEvent.of(id, removed));
+        });
+    }
+}
@@ -4,17 +4,58 @@ import com.upgrade.codechallenge.model.Reservation;
 import com.upgrade.codechallenge.util.Response;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface ReservationService {
 
+    // Nights listed when a query gives no departure date
+    int DEFAULT_WINDOW_DAYS = 30;
+
+    // Largest number of reservations taken by saveReservations
+    int MAX_BATCH_SIZE = 100;
+
+    // Bounds of the lifetime of a hold, in minutes
+    int DEFAULT_HOLD_MINUTES = 10;
+    int MAX_HOLD_MINUTES = 30;
+
     Response getReservations(LocalDate arrivalDate, LocalDate departureDate);
 
+    // Same window as getReservations, but each night is handed to the consumer as it is read
+    Response streamReservations(LocalDate arrivalDate, LocalDate departureDate, Consumer<Reservation> consumer);
+
     Response getReservation(String id);
 
+    Response getReservationsByEmail(String email);
+
     Response saveReservation(Reservation reservation);
 
+    // Saves the acceptable reservations in one transaction; the content lists a BatchOutcome per item
+    Response saveReservations(List<Reservation> reservations);
+
+    // Claims the nights for a few minutes; the content is the hold id
+    Response holdReservation(Reservation reservation, int minutes);
+
+    // Turns a live hold into a reservation whose id is the hold id
+    Response confirmHold(String holdId, Reservation guest);
+
+    Response releaseHold(String holdId);
+
+    // Queues the guest for the dates; freed nights are offered as a hold, oldest waiter first
+    Response joinWaitlist(Reservation reservation);
+
+    Response getWaitlistEntry(String id);
+
+    Response leaveWaitlist(String id);
+
     Response updateReservation(String id, Reservation reservation);
 
+    // Only applies while the reservation is still at expectedVersion, otherwise the answer
+    // is a 412; a null version skips the check
+    Response updateReservation(String id, Reservation reservation, Long expectedVersion);
+
     Response deleteReservation(String id);
 
+    Response deleteReservation(String id, Long expectedVersion);
+
 }
@@ -1,125 +1,246 @@
 package com.upgrade.codechallenge.service;
 
+import com.upgrade.codechallenge.cache.ReservationCache;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
 import com.upgrade.codechallenge.exception.InternalServerErrorException;
 import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
 import com.upgrade.codechallenge.model.Reservation;
 import com.upgrade.codechallenge.repository.ReservationRepository;
 import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.TransactionCallbacks;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static java.time.temporal.ChronoUnit.DAYS;
 
+// Default storage mode: one row per reserved night
 @Service
-public class ReservationServiceImpl implements ReservationService {
+@ConditionalOnProperty(name = "reservation.storage", havingValue = "daily", matchIfMissing = true)
+public class ReservationServiceImpl extends AbstractReservationService {
 
     @Autowired
     private ReservationRepository reservationRepository;
 
-    public ReservationServiceImpl(ReservationRepository reservationRepository) {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ReservationServiceImpl(ReservationRepository reservationRepository,
+                                  OccupancyIndex occupancyIndex,
+                                  AdmissionSlots admissionSlots,
+                                  ApplicationEventPublisher eventPublisher,
+                                  ReservationCache reservationCache,
+                                  HoldRegistry holdRegistry,
+                                  Waitlist waitlist) {
+        super(occupancyIndex, admissionSlots, eventPublisher, reservationCache, holdRegistry, waitlist);
         this.reservationRepository = reservationRepository;
     }
 
+    @PostConstruct
+    public void init() {
+        this.restoreJournal();
+        this.loadOccupancy();
+    }
+
     @Override
-    @Transactional
-    public Response saveReservation(Reservation body) {
-        if(body.getArrivalDate() == null) {
-            return new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST);
+    protected List<Reservation> findReservationsFrom(LocalDate arrivalDate) {
+        return this.reservationRepository.findByArrivalDateGreaterThanEqual(arrivalDate);
+    }
+
+    @Override
+    protected List<Reservation> findReservations(LocalDate arrivalDate, LocalDate departureDate) {
+        return this.reservationRepository.findByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqual(arrivalDate, departureDate);
+    }
+
+    @Override
+    protected List<Reservation> findReservation(String resourceId) {
+        return this.reservationRepository.findReservationByResourceId(resourceId);
+    }
+
+    @Override
+    protected void forEachReservation(LocalDate arrivalDate, LocalDate departureDate, Consumer<Reservation> consumer) {
+        try (Stream<Reservation> reservations = this.reservationRepository
+                .streamByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqualOrderByArrivalDateAscCampsiteAsc(arrivalDate, departureDate)) {
+            reservations.forEach(reservation -> {
+                consumer.accept(reservation);
+                // Keep the persistence context from growing with the listing
+                this.entityManager.detach(reservation);
+            });
         }
-        if(body.getDepartureDate() == null) {
-            return new Response("You must specify a departure date.", null, HttpStatus.BAD_REQUEST);
+    }
+
+    @Override
+    protected List<Reservation> insertAll(List<Reservation> reservations) {
+        List<Reservation> nights = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            for (LocalDate day = reservation.getArrivalDate(); day.isBefore(reservation.getDepartureDate()); day = day.plusDays(1)) {
+                nights.add(new Reservation(day, day.plusDays(1),
+                        reservation.getName(),
+                        reservation.getEmail(),
+                        reservation.getResourceId(),
+                        reservation.getCampsite()));
+            }
         }
+        this.reservationRepository.saveAll(nights);
+        this.reservationRepository.flush();
+        return nights;
+    }
+
+    @Override
+    protected int removeReservation(String resourceId) {
+        return this.reservationRepository.deleteByResourceId(resourceId);
+    }
+
+    @Override
+    @Transactional
+    public Response saveReservation(Reservation body) {
+        return this.insertReservation(body, UUID.randomUUID().toString());
+    }
 
-        Response x = validateDates(body);
+    @Override
+    protected Response insertReservation(Reservation body, String resourceId) {
+        Response x = validateRequiredDates(body);
         if (x != null) return x;
+        x = validateDates(body);
+        if (x != null) return x;
+        x = validateCampsite(body);
+        if (x != null) return x;
+        if(!this.admissionSlots.tryClaim(body.getCampsite(), body.getArrivalDate(), body.getDepartureDate(), resourceId)) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
+        }
+        TransactionCallbacks.afterRollback(() -> this.admissionSlots.release(resourceId));
+        this.journalCreated(Collections.singletonList(new Reservation(body.getArrivalDate(), body.getDepartureDate(),
+                body.getName(), body.getEmail(), resourceId, body.getCampsite())));
         try {
-            String resourceId = UUID.randomUUID().toString();
             long daysBetween = DAYS.between(body.getArrivalDate(), body.getDepartureDate());
+            List<Reservation> saved = new ArrayList<>();
             for (int i = 0; i < daysBetween; i++) {
-                Reservation reservation = new Reservation(body.getArrivalDate().plusDays(i),
+                saved.add(new Reservation(body.getArrivalDate().plusDays(i),
                         body.getArrivalDate().plusDays(i + 1),
                         body.getName(),
                         body.getEmail(),
-                        resourceId);
-                this.reservationRepository.save(reservation);
+                        resourceId,
+                        body.getCampsite()));
             }
+            // All the nights go to the database in one batch; flushing here keeps a
+            // constraint violation inside this try instead of surfacing at commit
+            this.reservationRepository.saveAll(saved);
+            this.reservationRepository.flush();
+            TransactionCallbacks.afterCommit(() -> {
+                this.occupancyIndex.put(saved);
+                this.publishChange(new ReservationChangedEvent(resourceId, body.getArrivalDate(), body.getDepartureDate()));
+            });
             return new Response(null, resourceId, HttpStatus.OK);
         } catch (Exception e) {
             throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
         }
     }
 
-    @Override
-    public Response getReservations(LocalDate arrivalDate, LocalDate departureDate) {
-        if(arrivalDate == null) {
-            return new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST);
-        }
-        if(departureDate == null) {
-            departureDate = arrivalDate.plusDays(30);
-        } else if(arrivalDate.isAfter(departureDate)) {
-            return new Response("Arrival date is greater than departure date.", null, HttpStatus.BAD_REQUEST);
-        }
-        return new Response(null,
-                this.reservationRepository.findByArrivalDateGreaterThanEqualAndDepartureDateLessThanEqual(arrivalDate,departureDate),
-                HttpStatus.OK);
-    }
 
     @Override
-    public Response getReservation(String id) {
-        List<Reservation> reservations = this.reservationRepository.findReservationByResourceId(id);
-        if(reservations == null || reservations.size() == 0) {
-            return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
-        }
+    public Response getReservationsByEmail(String email) {
+        Response response = validateEmail(email);
+        if(response != null)
+            return response;
         return new Response(null,
-                reservations,
+                this.reservationRepository.findReservationByEmail(email),
                 HttpStatus.OK);
     }
 
     @Override
     @Transactional
-    public Response updateReservation(String id, Reservation reservation) {
+    public Response updateReservation(String id, Reservation reservation, Long expectedVersion) {
         List<Reservation> reservations = this.reservationRepository.findReservationByResourceId(id);
         Response response = checkIfReservationExists(reservations);
         if(response != null)
             return response;
+        long version = Reservation.versionOf(reservations);
+        response = validateVersion(expectedVersion, version);
+        if (response != null) return response;
         response= validateDates(reservation);
         if (response != null) return response;
-        int daysBetween = (int) DAYS.between(reservation.getArrivalDate(), reservation.getDepartureDate());
-        if(daysBetween != reservations.size()) {
-            return new Response("The new reservation's duration must be the same than the previous", null, HttpStatus.BAD_REQUEST);
+        LocalDate arrivalDate = reservation.getArrivalDate();
+        LocalDate departureDate = reservation.getDepartureDate();
+        // A reservation keeps its site when its dates change
+        int campsite = reservations.get(0).getCampsite();
+        LocalDate previousArrival = reservations.get(0).getArrivalDate();
+        LocalDate previousDeparture = reservations.get(0).getDepartureDate();
+        for (Reservation r : reservations) {
+            if (r.getArrivalDate().isBefore(previousArrival)) previousArrival = r.getArrivalDate();
+            if (r.getDepartureDate().isAfter(previousDeparture)) previousDeparture = r.getDepartureDate();
         }
-        // This lines are for move the reservation to a previous date than the arrival date
-        int difference;
-        boolean before = reservations.get(0).getDepartureDate().isAfter(reservation.getArrivalDate());
-        if(before) {
-            difference = (int) DAYS.between(reservation.getArrivalDate(), reservations.get(0).getArrivalDate());
-            Collections.reverse(reservations);
-        } else {
-            difference = (int) DAYS.between(reservations.get(reservations.size() -1).getDepartureDate(), reservation.getDepartureDate());
+        if(!this.admissionSlots.tryClaim(campsite, arrivalDate, departureDate, id)) {
+            throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
         }
-        // Reverse order for avoid the unique constraint violation in the BD
-        // I assume that the modification maintains the same amount of days
+        LocalDate releaseFrom = previousArrival;
+        LocalDate releaseTo = previousDeparture;
+        TransactionCallbacks.afterRollback(() -> this.releaseOutside(id, campsite, arrivalDate, departureDate, releaseFrom, releaseTo));
+        this.journalMoved(id, arrivalDate, departureDate);
+        // Only the nights that differ between the old and the new range are written:
+        // the ones left out are deleted and the new ones inserted, in one batch each
         try {
-            for (int i = daysBetween - 1; i >= 0; i--) {
-                Reservation r = reservations.get(i);
-                if(before) {
-                    this.reservationRepository.updateReservationDates(r.getArrivalDate().minusDays(difference),
-                            r.getDepartureDate().minusDays(difference),
-                            r.getId());
+            List<Reservation> kept = new ArrayList<>();
+            List<Reservation> removed = new ArrayList<>();
+            Set<LocalDate> keptNights = new HashSet<>();
+            for (Reservation r : reservations) {
+                if (r.getArrivalDate().isBefore(arrivalDate) || !r.getArrivalDate().isBefore(departureDate)) {
+                    removed.add(r);
                 } else {
-                    this.reservationRepository.updateReservationDates(r.getArrivalDate().plusDays(difference),
-                            r.getDepartureDate().plusDays(difference),
-                            r.getId());
+                    kept.add(r);
+                    keptNights.add(r.getArrivalDate());
+                }
+            }
+            Reservation previous = reservations.get(0);
+            List<Reservation> added = new ArrayList<>();
+            for (LocalDate day = arrivalDate; day.isBefore(departureDate); day = day.plusDays(1)) {
+                if (!keptNights.contains(day)) {
+                    Reservation night = new Reservation(day, day.plusDays(1), previous.getName(), previous.getEmail(), id, campsite);
+                    night.setVersion(version + 1);
+                    added.add(night);
                 }
             }
+            // One statement moves every night to the next version, so a concurrent writer
+            // of the same reservation fails here or waits on the rows until this commits
+            if (this.reservationRepository.incrementVersion(id, version) != reservations.size()) {
+                throw new ObjectOptimisticLockingFailureException(Reservation.class, id);
+            }
+            if (!removed.isEmpty()) {
+                this.reservationRepository.deleteInBatch(removed);
+            }
+            if (!added.isEmpty()) {
+                this.reservationRepository.saveAll(added);
+            }
+            this.reservationRepository.flush();
+            List<Reservation> current = new ArrayList<>(kept);
+            current.addAll(added);
+            TransactionCallbacks.afterCommit(() -> {
+                this.occupancyIndex.remove(id);
+                this.occupancyIndex.put(current);
+                this.releaseOutside(id, campsite, releaseFrom, releaseTo, arrivalDate, departureDate);
+                this.publishChange(new ReservationChangedEvent(id, releaseFrom, releaseTo));
+                this.publishChange(new ReservationChangedEvent(id, arrivalDate, departureDate));
+            });
             return new Response(null, id, HttpStatus.OK);
+        } catch (OptimisticLockingFailureException e) {
+            throw e;
         } catch (Exception e) {
             throw new OccupiedDateRangeException("The camp is already reserved for that date range.");
         }
@@ -127,35 +248,50 @@ public class ReservationServiceImpl implements ReservationService {
 
     @Override
     @Transactional
-    public Response deleteReservation(String id) {
-        List<Reservation> reservations = this.reservationRepository.findReservationByResourceId(id);
-        Response r = checkIfReservationExists(reservations);
-        if(r != null)
-            return r;
+    public Response deleteReservation(String id, Long expectedVersion) {
+        if(expectedVersion != null) {
+            return this.deleteVersioned(id, expectedVersion);
+        }
+        int deleted;
         try {
-            for (Reservation reservation : reservations) {
-                this.reservationRepository.delete(reservation);
-            }
-            return new Response(null, null, HttpStatus.OK);
+            deleted = this.reservationRepository.deleteByResourceId(id);
         } catch (Exception e) {
             throw new InternalServerErrorException("There is an internal problem in the server.");
         }
+        if(deleted == 0) {
+            return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+        }
+        this.afterDelete(id);
+        return new Response(null, null, HttpStatus.OK);
     }
 
-    private Response validateDates(Reservation reservation) {
-        if(reservation.getArrivalDate().isAfter(reservation.getDepartureDate())) {
-            return new Response("The arrival date is greater than departure date.", null, HttpStatus.BAD_REQUEST);
-        }
-        LocalDate now = LocalDate.now();
-        long daysBetween = DAYS.between(now, reservation.getArrivalDate());
-        if(daysBetween < 1 || daysBetween > 30) {
-            return new Response("The campsite can be reserved minimum 1 day(s) ahead of arrival and up to 1 month in advance.", null, HttpStatus.BAD_REQUEST);
+    // Bulk delete that only matches the nights at the expected version; when nothing
+    // matched, a second lookup tells a missing reservation from a modified one
+    private Response deleteVersioned(String id, long expectedVersion) {
+        int deleted;
+        try {
+            deleted = this.reservationRepository.deleteByResourceIdAndVersion(id, expectedVersion);
+        } catch (Exception e) {
+            throw new InternalServerErrorException("There is an internal problem in the server.");
         }
-        daysBetween = DAYS.between(reservation.getArrivalDate(), reservation.getDepartureDate());
-        if(daysBetween > 3) {
-            return new Response("The campsite can be reserved for max 3 days.", null, HttpStatus.BAD_REQUEST);
+        if(deleted == 0) {
+            if(!this.reservationRepository.existsByResourceId(id)) {
+                return new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+            }
+            return versionMismatch();
         }
-        return null;
+        this.afterDelete(id);
+        return new Response(null, null, HttpStatus.OK);
+    }
+
+    private void afterDelete(String id) {
+        this.journalCancelled(id);
+        TransactionCallbacks.afterCommit(() -> {
+            // Nights outside the index are not known here, so the event then covers every window
+            List<Reservation> removed = this.occupancyIndex.remove(id);
+            this.admissionSlots.release(id);
+            this.publishChange(ReservationChangedEvent.of(id, removed));
+        });
     }
 
     private Response checkIfReservationExists(List<Reservation> reservations) {
@@ -0,0 +1,212 @@
+package com.upgrade.codechallenge.service;
+
+import com.google.gson.annotations.Expose;
+import com.upgrade.codechallenge.event.HoldReleasedEvent;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guests waiting for nights that are taken. Waiters are indexed by each night they
+ * want; when nights are freed, only the waiters of those nights are looked at, oldest
+ * first, and each one whose whole range can be claimed is offered a hold on it.
+ * A waiter leaves the list once the offer is confirmed or let go.
+ */
+@Component
+public class Waitlist {
+
+    // How long an offered hold waits for its confirmation
+    public static final Duration OFFER_TTL = Duration.ofMinutes(ReservationService.DEFAULT_HOLD_MINUTES);
+
+    public enum Status { WAITING, OFFERED }
+
+    public static final class Waiter {
+        @Expose
+        private final String id;
+        @Expose
+        private volatile Status status = Status.WAITING;
+        // Id of the hold offered to the waiter, to confirm with POST /reservation/hold/{id}/confirm
+        @Expose
+        private volatile String holdId;
+        @Expose
+        private final int campsite;
+        private final long sequence;
+        private final LocalDate arrivalDate;
+        private final LocalDate departureDate;
+
+        private Waiter(String id, long sequence, int campsite, LocalDate arrivalDate, LocalDate departureDate) {
+            this.id = id;
+            this.sequence = sequence;
+            this.campsite = campsite;
+            this.arrivalDate = arrivalDate;
+            this.departureDate = departureDate;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getHoldId() {
+            return holdId;
+        }
+
+        public int getCampsite() {
+            return campsite;
+        }
+
+        public LocalDate getArrivalDate() {
+            return arrivalDate;
+        }
+
+        public LocalDate getDepartureDate() {
+            return departureDate;
+        }
+    }
+
+    private static final Comparator<Waiter> BY_ARRIVAL_ORDER = Comparator.comparingLong(w -> w.sequence);
+
+    private final HoldRegistry holdRegistry;
+    private final int maxSize;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+    // Offered waiters by hold id, to learn when an offer was let go
+    private final Map<String, Waiter> offers = new ConcurrentHashMap<>();
+    // Waiting waiters by each night they want; guarded by this
+    private final NavigableMap<LocalDate, Set<Waiter>> byNight = new TreeMap<>();
+
+    @Autowired
+    public Waitlist(HoldRegistry holdRegistry, @Value("${reservation.waitlist.max-size:10000}") int maxSize) {
+        this.holdRegistry = holdRegistry;
+        this.maxSize = maxSize;
+    }
+
+    // Null when the waitlist is full; a waiter whose nights are free is offered them right away
+    public Waiter join(int campsite, LocalDate arrivalDate, LocalDate departureDate) {
+        Waiter waiter;
+        // Joins check the size and add under the same lock, so concurrent ones cannot overfill the list
+        synchronized (this) {
+            if (this.waiters.size() >= this.maxSize) {
+                return null;
+            }
+            waiter = new Waiter(UUID.randomUUID().toString(), this.sequence.incrementAndGet(), campsite, arrivalDate, departureDate);
+            this.waiters.put(waiter.id, waiter);
+            if (!this.tryOffer(waiter)) {
+                for (LocalDate night = arrivalDate; night.isBefore(departureDate); night = night.plusDays(1)) {
+                    this.byNight.computeIfAbsent(night, n -> new TreeSet<>(BY_ARRIVAL_ORDER)).add(waiter);
+                }
+            }
+        }
+        return waiter;
+    }
+
+    public Waiter find(String id) {
+        return this.waiters.get(id);
+    }
+
+    // An offered hold is released, so its nights go to the next waiter
+    public boolean leave(String id) {
+        Waiter waiter = this.waiters.remove(id);
+        if (waiter == null) {
+            return false;
+        }
+        synchronized (this) {
+            this.unindex(waiter);
+        }
+        if (waiter.holdId != null) {
+            this.holdRegistry.release(waiter.holdId);
+        }
+        return true;
+    }
+
+    public int size() {
+        return this.waiters.size();
+    }
+
+    // Deletes and moves free the previous nights of the reservation; a confirmed
+    // offer shows up here with the hold id as resource id
+    @EventListener
+    public void onReservationChanged(ReservationChangedEvent event) {
+        this.finish(event.getResourceId());
+        this.offer(event.getFrom(), event.getTo());
+    }
+
+    @EventListener
+    public void onHoldReleased(HoldReleasedEvent event) {
+        this.finish(event.getHoldId());
+        this.offer(event.getFrom(), event.getTo());
+    }
+
+    private void finish(String holdId) {
+        Waiter offered = (holdId != null) ? this.offers.remove(holdId) : null;
+        if (offered != null) {
+            this.waiters.remove(offered.id, offered);
+        }
+    }
+
+    // Offers the nights in [from, to), or every night when the range is not known. Waiters
+    // for another site sharing those nights are looked at too; their claim just fails
+    private synchronized void offer(LocalDate from, LocalDate to) {
+        NavigableMap<LocalDate, Set<Waiter>> nights = (from == null || to == null)
+                ? this.byNight
+                : this.byNight.subMap(from, true, to, false);
+        if (nights.isEmpty()) {
+            return;
+        }
+        TreeSet<Waiter> candidates = new TreeSet<>(BY_ARRIVAL_ORDER);
+        for (Set<Waiter> waiting : nights.values()) {
+            candidates.addAll(waiting);
+        }
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        for (Waiter waiter : candidates) {
+            if (waiter.arrivalDate.isBefore(tomorrow)) {
+                // Too late to book these nights
+                this.waiters.remove(waiter.id, waiter);
+                this.unindex(waiter);
+            } else if (this.tryOffer(waiter)) {
+                this.unindex(waiter);
+            }
+        }
+    }
+
+    private boolean tryOffer(Waiter waiter) {
+        HoldRegistry.Hold hold = this.holdRegistry.tryHold(waiter.campsite, waiter.arrivalDate, waiter.departureDate, OFFER_TTL);
+        if (hold == null) {
+            return false;
+        }
+        waiter.holdId = hold.getId();
+        waiter.status = Status.OFFERED;
+        this.offers.put(hold.getId(), waiter);
+        return true;
+    }
+
+    private void unindex(Waiter waiter) {
+        for (LocalDate night = waiter.arrivalDate; night.isBefore(waiter.departureDate); night = night.plusDays(1)) {
+            Set<Waiter> waiting = this.byNight.get(night);
+            if (waiting != null) {
+                waiting.remove(waiter);
+                if (waiting.isEmpty()) {
+                    this.byNight.remove(night);
+                }
+            }
+        }
+    }
+}
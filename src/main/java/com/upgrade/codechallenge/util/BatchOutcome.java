@@ -0,0 +1,41 @@
+package com.upgrade.codechallenge.util;
+
+import com.google.gson.annotations.Expose;
+
+/**
+ * What happened to one item of POST /reservation/batch. The code and error are the
+ * ones the item would have got from POST /reservation on its own.
+ */
+public class BatchOutcome {
+    @Expose
+    private int index;
+    @Expose
+    private int code;
+    @Expose
+    private String error;
+    @Expose
+    private Object content;
+
+    public BatchOutcome(int index, Response response) {
+        this.index = index;
+        this.code = response.getCode().value();
+        this.error = response.getError();
+        this.content = response.getContent();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Object getContent() {
+        return content;
+    }
+}
@@ -14,6 +14,7 @@ public class ReservationGsonAdapter extends TypeAdapter<Reservation> {
     public void write(JsonWriter jsonWriter, Reservation reservation) throws IOException {
         jsonWriter.beginObject();
         jsonWriter.name("id").value(reservation.getResourceId());
+        jsonWriter.name("campsite").value(reservation.getCampsite());
         jsonWriter.name("arrival_date").value(reservation.getArrivalDate().toString());
         jsonWriter.name("departure_date").value(reservation.getDepartureDate().toString());
         jsonWriter.name("name").value(reservation.getName());
@@ -30,6 +31,9 @@ public class ReservationGsonAdapter extends TypeAdapter<Reservation> {
                 case "id":
                     reservation.setResourceId(jsonReader.nextString());
                     break;
+                case "campsite":
+                    reservation.setCampsite(jsonReader.nextInt());
+                    break;
                 case "arrival_date":
                     reservation.setArrivalDate(LocalDate.parse(jsonReader.nextString()));
                     break;
@@ -0,0 +1,61 @@
+package com.upgrade.codechallenge.util;
+
+import com.google.gson.stream.JsonWriter;
+import com.upgrade.codechallenge.model.Reservation;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Writes the {"error": null, "content": [...]} envelope straight into the servlet
+ * output, one reservation at a time, so a listing never sits in memory as a whole.
+ * Nothing is committed to the response until the first reservation or finish().
+ */
+public class ReservationStreamWriter implements Consumer<Reservation> {
+
+    private final HttpServletResponse httpResponse;
+    private final ReservationGsonAdapter adapter = new ReservationGsonAdapter();
+    private JsonWriter jsonWriter;
+
+    public ReservationStreamWriter(HttpServletResponse httpResponse) {
+        this.httpResponse = httpResponse;
+    }
+
+    @Override
+    public void accept(Reservation reservation) {
+        try {
+            this.begin();
+            this.adapter.write(this.jsonWriter, reservation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void finish() throws IOException {
+        this.begin();
+        this.jsonWriter.endArray();
+        this.jsonWriter.endObject();
+        this.jsonWriter.flush();
+    }
+
+    private void begin() throws IOException {
+        if (this.jsonWriter != null) {
+            return;
+        }
+        this.httpResponse.setStatus(HttpStatus.OK.value());
+        this.httpResponse.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        this.jsonWriter = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(this.httpResponse.getOutputStream(), StandardCharsets.UTF_8)));
+        this.jsonWriter.setSerializeNulls(true);
+        this.jsonWriter.beginObject();
+        this.jsonWriter.name("error").nullValue();
+        this.jsonWriter.name("content").beginArray();
+    }
+}
@@ -11,6 +11,8 @@ public class Response {
     @Expose
     private Object content;
     private HttpStatus code;
+    // Which rule rejected the request, for metrics; never sent to the client
+    private String rule;
 
     public Response(String error, Object content, HttpStatus code) {
         this.error = error;
@@ -18,6 +20,11 @@ public class Response {
         this.code = code;
     }
 
+    public Response(String error, Object content, HttpStatus code, String rule) {
+        this(error, content, code);
+        this.rule = rule;
+    }
+
     public String getError() {
         return error;
     }
@@ -42,6 +49,10 @@ public class Response {
         this.code = code;
     }
 
+    public String getRule() {
+        return rule;
+    }
+
     @Override
     public String toString() {
         String content = (this.content == null)? "null" : this.content.toString();
@@ -0,0 +1,128 @@
+package com.upgrade.codechallenge.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a Response in the format the client negotiated: compact JSON by default,
+ * indented JSON on request, or CBOR. Every format goes through the same Gson field
+ * mapping (ReservationGsonAdapter included); CBOR is written from the Gson tree.
+ */
+public class ResponseEncoder {
+
+    public static final MediaType APPLICATION_CBOR = MediaType.valueOf("application/cbor");
+
+    public enum Format { JSON, PRETTY_JSON, CBOR }
+
+    private final Gson gson = new GsonBuilder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .serializeNulls()
+            .create();
+
+    private final Gson prettyGson = new GsonBuilder()
+            .setPrettyPrinting()
+            .excludeFieldsWithoutExposeAnnotation()
+            .serializeNulls()
+            .create();
+
+    private final CBORFactory cborFactory = new CBORFactory();
+
+    // Accept: application/cbor selects CBOR; ?pretty=true or Accept: application/json;profile=pretty indents JSON
+    public Format negotiate(String accept, String pretty) {
+        if ("true".equalsIgnoreCase(pretty)) {
+            return Format.PRETTY_JSON;
+        }
+        if (accept == null || accept.isEmpty()) {
+            return Format.JSON;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return Format.JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) {
+                continue;
+            }
+            if (mediaType.equalsTypeAndSubtype(APPLICATION_CBOR)) {
+                return Format.CBOR;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return "pretty".equals(mediaType.getParameter("profile")) ? Format.PRETTY_JSON : Format.JSON;
+            }
+        }
+        return Format.JSON;
+    }
+
+    public MediaType contentType(Format format) {
+        return format == Format.CBOR ? APPLICATION_CBOR : MediaType.APPLICATION_JSON_UTF8;
+    }
+
+    public byte[] encode(Response response, Format format) {
+        switch (format) {
+            case CBOR:
+                return this.toCbor(this.gson.toJsonTree(response));
+            case PRETTY_JSON:
+                return this.prettyGson.toJson(response).getBytes(StandardCharsets.UTF_8);
+            default:
+                return this.gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public String toJson(Response response) {
+        return this.gson.toJson(response);
+    }
+
+    private byte[] toCbor(JsonElement tree) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = this.cborFactory.createGenerator(out)) {
+            write(generator, tree);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(JsonGenerator generator, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            generator.writeNull();
+        } else if (element.isJsonObject()) {
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                write(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (element.isJsonArray()) {
+            generator.writeStartArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                write(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                generator.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                generator.writeNumber(primitive.getAsBigDecimal());
+            } else {
+                generator.writeString(primitive.getAsString());
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.upgrade.codechallenge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel: a task is dropped in the bucket of the tick it is due on, and
+ * each tick only looks at its own bucket, so scheduling and cancelling are O(1) however
+ * many tasks are waiting. Tasks run on the wheel's thread, up to about a tick late, and
+ * must be short.
+ */
+public class TimingWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final List<Timeout>[] buckets;
+    private final int mask;
+    // Tasks scheduled since the last tick, moved into their bucket by the wheel's thread
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, String threadName) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - this.start + unit.toNanos(delay));
+        this.pending.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        this.running = false;
+        this.worker.interrupt();
+    }
+
+    private void run() {
+        while (this.running) {
+            long deadline = (this.tick + 1) * this.tickNanos;
+            long sleep = deadline - (System.nanoTime() - this.start);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            this.transferPending();
+            this.expire(this.buckets[(int) (this.tick & this.mask)]);
+            this.tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = this.pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Already due tasks go to the current bucket
+            long due = Math.max(timeout.deadline / this.tickNanos, this.tick);
+            timeout.rounds = (due - this.tick) / this.buckets.length;
+            this.buckets[(int) (due & this.mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.cancelled) {
+                timeouts.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                timeouts.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    // A failing task must not stop the wheel
+                    logger.error("Timing wheel task failed", e);
+                }
+            }
+        }
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // The task does not run once cancelled; it is dropped from its bucket on its tick
+        public void cancel() {
+            this.cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.cache.IdempotencyStore;
+import com.upgrade.codechallenge.util.Response;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IdempotencyStoreTests {
+
+    private final MutableClock clock = new MutableClock();
+    private final IdempotencyStore store = new IdempotencyStore(Duration.ofMinutes(10), 2, this.clock);
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @Test
+    public void shouldCoalesceRequestsWhileTheFirstOneRuns() throws Exception {
+        CompletableFuture<Response> running = new CompletableFuture<>();
+        CompletableFuture<Response> first = this.store.execute("key", "body", () -> {
+            this.executions.incrementAndGet();
+            return running;
+        });
+        CompletableFuture<Response> second = this.store.execute("key", "body", this::created);
+
+        assertThat(second.isDone()).isFalse();
+        running.complete(new Response(null, "id", HttpStatus.OK));
+        assertThat(first.get().getContent()).isEqualTo("id");
+        assertThat(second.get().getContent()).isEqualTo("id");
+        assertThat(this.executions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefuseKeyReusedForAnotherRequest() throws Exception {
+        this.store.execute("key", "body", this::created);
+
+        Response response = this.store.execute("key", "other body", this::created).get();
+        assertThat(response.getCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(this.executions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRunAgainOnceTheResultExpired() throws Exception {
+        this.store.execute("key", "body", this::created);
+        this.clock.advance(Duration.ofMinutes(11));
+
+        this.store.execute("key", "body", this::created);
+        assertThat(this.executions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotKeepServerErrors() throws Exception {
+        this.store.execute("key", "body", () -> CompletableFuture.completedFuture(
+                new Response("The server is busy, please try again later.", null, HttpStatus.SERVICE_UNAVAILABLE)));
+
+        Response response = this.store.execute("key", "body", this::created).get();
+        assertThat(response.getCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void shouldEvictOldestKeysWhenFull() throws Exception {
+        this.store.execute("a", "body", this::created);
+        this.store.execute("b", "body", this::created);
+        this.store.execute("c", "body", this::created);
+
+        assertThat(this.store.size()).isEqualTo(2);
+        this.store.execute("a", "body", this::created);
+        assertThat(this.executions.get()).isEqualTo(4);
+    }
+
+    private CompletableFuture<Response> created() {
+        this.executions.incrementAndGet();
+        return CompletableFuture.completedFuture(new Response(null, "id", HttpStatus.OK));
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.EPOCH;
+
+        void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.service.OptimisticRetry;
+import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OptimisticRetryTests {
+
+    @Mock
+    private ReservationService reservationService;
+    private ReservationService retried;
+
+    @Before
+    public void setup() {
+        AspectJProxyFactory factory = new AspectJProxyFactory(this.reservationService);
+        factory.addAspect(new OptimisticRetry(3));
+        this.retried = factory.getProxy();
+    }
+
+    @Test
+    public void shouldRetryUpdateThatLostARace() {
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null);
+        Mockito.when(reservationService.updateReservation("id", toModify))
+                .thenThrow(new OptimisticLockingFailureException("stale"))
+                .thenReturn(new Response(null, "id", HttpStatus.OK));
+
+        Response response = this.retried.updateReservation("id", toModify);
+        assertThat(response).isEqualTo(new Response(null, "id", HttpStatus.OK));
+        Mockito.verify(reservationService, Mockito.times(2)).updateReservation("id", toModify);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() {
+        Mockito.when(reservationService.deleteReservation("id"))
+                .thenThrow(new OptimisticLockingFailureException("stale"));
+
+        Response response = this.retried.deleteReservation("id");
+        assertThat(response.getCode()).isEqualTo(HttpStatus.CONFLICT);
+        Mockito.verify(reservationService, Mockito.times(3)).deleteReservation("id");
+    }
+
+    @Test
+    public void shouldNotRetryConditionalUpdate() {
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null);
+        Mockito.when(reservationService.updateReservation("id", toModify, 3L))
+                .thenThrow(new OptimisticLockingFailureException("stale"));
+
+        Response response = this.retried.updateReservation("id", toModify, 3L);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        Mockito.verify(reservationService).updateReservation("id", toModify, 3L);
+    }
+}
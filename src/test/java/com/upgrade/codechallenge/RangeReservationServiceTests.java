@@ -0,0 +1,201 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.cache.ReservationCache;
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.model.Booking;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.model.Campsite;
+import com.upgrade.codechallenge.repository.BookingRepository;
+import com.upgrade.codechallenge.repository.CampsiteRepository;
+import com.upgrade.codechallenge.service.AdmissionSlots;
+import com.upgrade.codechallenge.service.HoldRegistry;
+import com.upgrade.codechallenge.service.BookingMigration;
+import com.upgrade.codechallenge.service.OccupancyIndex;
+import com.upgrade.codechallenge.service.RangeReservationServiceImpl;
+import com.upgrade.codechallenge.service.Waitlist;
+import com.upgrade.codechallenge.util.Response;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RangeReservationServiceTests {
+
+    @Mock
+    private BookingRepository bookingRepository;
+    @Mock
+    private BookingMigration bookingMigration;
+    @Mock
+    private CampsiteRepository campsiteRepository;
+    @Spy
+    private OccupancyIndex occupancyIndex = new OccupancyIndex();
+    @Spy
+    private AdmissionSlots admissionSlots = new AdmissionSlots();
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Spy
+    private ReservationCache reservationCache = new ReservationCache(2);
+    @Spy
+    private HoldRegistry holdRegistry = new HoldRegistry(this.admissionSlots, event -> {});
+    @Spy
+    private Waitlist waitlist = new Waitlist(this.holdRegistry, 100);
+    @InjectMocks
+    private RangeReservationServiceImpl reservationService;
+
+    @After
+    public void tearDown() {
+        // Every registry runs its own timing wheel thread
+        this.holdRegistry.destroy();
+    }
+
+    // Save Reservation
+    @Test
+    public void shouldSaveReservationAsSingleBooking() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(2),
+                                        LocalDate.now().plusDays(5),
+                                        "Agustin Chirichigno",
+                                        "chirichignoa@gmail.com");
+        Mockito.when(this.bookingRepository.countOverlapping(Mockito.anyInt(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class), Mockito.anyString()))
+                .thenReturn(0L);
+
+        Response response = this.reservationService.saveReservation(r);
+        assertThat(response.getError()).isEqualTo(null);
+        assertThat(response.getContent().toString().length()).isGreaterThan(0);
+        Mockito.verify(this.bookingRepository, Mockito.times(1)).saveAndFlush(Mockito.any(Booking.class));
+    }
+
+    @Test
+    public void shouldLockCampsiteBeforeLookingForOverlaps() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(2),
+                                        LocalDate.now().plusDays(5),
+                                        "Agustin Chirichigno",
+                                        "chirichignoa@gmail.com");
+
+        this.reservationService.saveReservation(r);
+        InOrder inOrder = Mockito.inOrder(this.campsiteRepository, this.bookingRepository);
+        inOrder.verify(this.campsiteRepository).lock(1);
+        inOrder.verify(this.bookingRepository).countOverlapping(Mockito.eq(1), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class), Mockito.anyString());
+        inOrder.verify(this.bookingRepository).saveAndFlush(Mockito.any(Booking.class));
+    }
+
+    @Test
+    public void shouldCreateMissingCampsitesOnStartup() {
+        Mockito.when(this.campsiteRepository.existsById(1)).thenReturn(false);
+
+        this.reservationService.init();
+        ArgumentCaptor<Campsite> created = ArgumentCaptor.forClass(Campsite.class);
+        Mockito.verify(this.campsiteRepository).save(created.capture());
+        assertThat(created.getValue().getId()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotSaveReservationOverlappingBooking() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(2),
+                                        LocalDate.now().plusDays(5),
+                                        "Agustin Chirichigno",
+                                        "chirichignoa@gmail.com");
+        Mockito.when(this.bookingRepository.countOverlapping(Mockito.anyInt(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class), Mockito.anyString()))
+                .thenReturn(1L);
+        try {
+            this.reservationService.saveReservation(r);
+        } catch (OccupiedDateRangeException e) {
+            assertThat(e.getMessage()).isEqualTo("The camp is already reserved for that date range.");
+        }
+        Mockito.verify(this.bookingRepository, Mockito.never()).saveAndFlush(Mockito.any(Booking.class));
+    }
+
+    @Test
+    public void shouldNotSaveReservationMoreThanThreeDays() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(1),
+                LocalDate.now().plusDays(9),
+                "Agustin Chirichigno",
+                "chirichignoa@gmail.com");
+        Response correctResponse = new Response("The campsite can be reserved for max 3 days.", null, HttpStatus.BAD_REQUEST);
+
+        Response response = this.reservationService.saveReservation(r);
+        assertThat(response).isEqualTo(correctResponse);
+    }
+
+    // Get Reservations
+    @Test
+    public void shouldGetReservationsExpandedPerNight() {
+        List<Booking> bookings = new ArrayList<>();
+        bookings.add(new Booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(4), "Agustin Chirichigno", "chirichignoa@gmail.com", UUID.randomUUID().toString()));
+        bookings.add(new Booking(LocalDate.now().plusDays(5), LocalDate.now().plusDays(7), "Juan Perez", "jp@gmail.com", UUID.randomUUID().toString()));
+        Mockito.when(this.bookingRepository.findOverlapping(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+                .thenReturn(bookings);
+
+        Response response = this.reservationService.getReservations(LocalDate.now(), LocalDate.now().plusDays(6));
+        assertThat(response.getError()).isEqualTo(null);
+        // The second booking's last night ends after the requested departure
+        assertThat(((List<Reservation>)response.getContent()).size()).isEqualTo(4);
+    }
+
+    // Get Reservation
+    @Test
+    public void shouldGetReservation() {
+        String resourceId = UUID.randomUUID().toString();
+        Mockito.when(this.bookingRepository.findByResourceId(resourceId))
+                .thenReturn(new Booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(4), "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
+
+        Response response = this.reservationService.getReservation(resourceId);
+        assertThat(response.getError()).isEqualTo(null);
+        for(Reservation reservation: (List<Reservation>)response.getContent()) {
+            assertThat(reservation.getResourceId()).isEqualTo(resourceId);
+        }
+        assertThat(((List<Reservation>)response.getContent()).size()).isEqualTo(3);
+    }
+
+    // Update Reservation
+    @Test
+    public void shouldUpdateReservation() {
+        String resourceId = UUID.randomUUID().toString();
+        Booking booking = new Booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(6), "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+        Mockito.when(this.bookingRepository.findByResourceId(resourceId)).thenReturn(booking);
+        Mockito.when(this.bookingRepository.countOverlapping(Mockito.anyInt(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class), Mockito.anyString()))
+                .thenReturn(0L);
+
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(7), null, null, resourceId);
+        Response response = this.reservationService.updateReservation(resourceId, toModify);
+        assertThat(response).isEqualTo(new Response(null, resourceId, HttpStatus.OK));
+        assertThat(booking.getArrivalDate()).isEqualTo(LocalDate.now().plusDays(4));
+        assertThat(booking.getDepartureDate()).isEqualTo(LocalDate.now().plusDays(7));
+    }
+
+    // Delete Reservation
+    @Test
+    public void shouldNotDeleteReservationResourceIdDoesNotExist() {
+        Response correctResponse = new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
+        Mockito.when(this.bookingRepository.deleteByResourceId(Mockito.anyString())).thenReturn(0);
+
+        Response response = this.reservationService.deleteReservation(UUID.randomUUID().toString());
+        assertThat(response).isEqualTo(correctResponse);
+    }
+
+    @Test
+    public void shouldNotDeleteReservationModifiedSinceRead() {
+        String resourceId = UUID.randomUUID().toString();
+        Mockito.when(this.bookingRepository.deleteByResourceIdAndVersion(resourceId, 2L)).thenReturn(0);
+        Mockito.when(this.bookingRepository.existsByResourceId(resourceId)).thenReturn(true);
+
+        Response response = this.reservationService.deleteReservation(resourceId, 2L);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        Mockito.verify(this.bookingRepository, Mockito.never()).findByResourceId(Mockito.anyString());
+    }
+}
@@ -0,0 +1,111 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.ratelimit.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTests {
+
+    private final MutableClock clock = new MutableClock();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // 60 a minute with a burst of 3 per address, 6 a minute with a burst of 2 per email
+    private final RateLimiter limiter = new RateLimiter(true, 60, 3, 6, 2, 2, this.clock, this.registry);
+
+    @Test
+    public void shouldLetABurstThroughAndThenAskToWait() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(this.limiter.admit("10.0.0.1")).isEqualTo(0);
+        }
+        assertThat(this.limiter.admit("10.0.0.1")).isEqualTo(1);
+        assertThat(this.limiter.admit("10.0.0.2")).isEqualTo(0);
+
+        this.clock.advance(Duration.ofSeconds(1));
+        assertThat(this.limiter.admit("10.0.0.1")).isEqualTo(0);
+        assertThat(this.registry.get("reservation.ratelimit.requests")
+                .tag("key", "ip")
+                .tag("outcome", "limited")
+                .counter()
+                .count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void shouldLimitAnEmailAcrossAddresses() {
+        assertThat(this.limiter.admit("10.0.0.1", "jp@gmail.com")).isEqualTo(0);
+        assertThat(this.limiter.admit("10.0.0.2", "JP@gmail.com ")).isEqualTo(0);
+        // One token every ten seconds
+        assertThat(this.limiter.admit("10.0.0.3", "jp@gmail.com")).isEqualTo(10);
+        assertThat(this.limiter.admit("10.0.0.3", "other@gmail.com")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldGiveBackTheAddressTokenWhenTheEmailIsLimited() {
+        assertThat(this.limiter.admit("10.0.0.1", "jp@gmail.com")).isEqualTo(0);
+        assertThat(this.limiter.admit("10.0.0.1", "jp@gmail.com")).isEqualTo(0);
+        // The email is out of tokens; the address must not pay for these
+        for (int i = 0; i < 5; i++) {
+            assertThat(this.limiter.admit("10.0.0.1", "jp@gmail.com")).isGreaterThan(0);
+        }
+        assertThat(this.limiter.admit("10.0.0.1", "other@gmail.com")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldGiveBackEmailTokensOfARefusedBatch() {
+        assertThat(this.limiter.admit("10.0.0.1", "busy@gmail.com")).isEqualTo(0);
+        assertThat(this.limiter.admit("10.0.0.2", "busy@gmail.com")).isEqualTo(0);
+        // The first email takes a token before the second one is refused
+        assertThat(this.limiter.admit("10.0.0.3", "jp@gmail.com", "busy@gmail.com")).isGreaterThan(0);
+        assertThat(this.limiter.admit("10.0.0.4", "jp@gmail.com")).isEqualTo(0);
+        assertThat(this.limiter.admit("10.0.0.5", "jp@gmail.com")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepAtMostMaxBuckets() {
+        this.limiter.admit("10.0.0.1");
+        this.limiter.admit("10.0.0.2");
+        this.limiter.admit("10.0.0.3");
+        assertThat(this.limiter.size()).isEqualTo(2);
+
+        // Refilled buckets are dropped as soon as they reach the head
+        this.clock.advance(Duration.ofMinutes(1));
+        this.limiter.admit("10.0.0.4");
+        assertThat(this.limiter.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAdmitEverythingWhenDisabled() {
+        RateLimiter disabled = new RateLimiter(false, 1, 1, 1, 1, 2, this.clock, this.registry);
+        for (int i = 0; i < 10; i++) {
+            assertThat(disabled.admit("10.0.0.1", "jp@gmail.com")).isEqualTo(0);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.EPOCH;
+
+        void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+    }
+}
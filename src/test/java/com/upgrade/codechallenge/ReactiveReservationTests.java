@@ -0,0 +1,122 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.cache.AvailabilityResponseCache;
+import com.upgrade.codechallenge.cache.DataVersions;
+import com.upgrade.codechallenge.cache.IdempotencyStore;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.ratelimit.RateLimiter;
+import com.upgrade.codechallenge.reactive.ReactiveReservationConfiguration;
+import com.upgrade.codechallenge.reactive.ReservationChanges;
+import com.upgrade.codechallenge.reactive.ReservationHandler;
+import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReactiveReservationTests {
+
+	@Mock
+	private ReservationService reservationService;
+	private AvailabilityResponseCache availabilityCache = new AvailabilityResponseCache();
+	private DataVersions dataVersions = new DataVersions();
+	private ReservationChanges changes = new ReservationChanges();
+	private WebTestClient client;
+
+	@Before
+	public void setup() {
+		ReservationHandler handler = new ReservationHandler(this.reservationService, this.availabilityCache,
+				this.dataVersions, this.changes, Schedulers.immediate(),
+				new IdempotencyStore(Duration.ofHours(1), 100, Clock.systemUTC()),
+				new RateLimiter(false, 60, 20, 10, 5, 100, Clock.systemUTC(), new SimpleMeterRegistry()));
+		this.client = WebTestClient
+				.bindToRouterFunction(new ReactiveReservationConfiguration().reservationRoutes(handler))
+				.build();
+	}
+
+	@Test
+	public void shouldCreateReservation() {
+		Mockito.when(reservationService.saveReservation(Mockito.any(Reservation.class)))
+				.thenReturn(new Response(null, "id", HttpStatus.CREATED));
+
+		this.client.post().uri("/reservation")
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.syncBody("{\"arrivalDate\":\"2019-02-10\",\"departureDate\":\"2019-02-12\",\"name\":\"Juan Perez\",\"email\":\"jp@gmail.com\"}")
+				.exchange()
+				.expectStatus().isCreated()
+				.expectBody()
+				.jsonPath("$.content").isEqualTo("id")
+				.jsonPath("$.error").isEmpty();
+	}
+
+	@Test
+	public void shouldGetReservationsWithTag() {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		this.client.get().uri("/reservation?arrival=2019-02-10&departure=2019-02-28")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals(HttpHeaders.ETAG,
+						this.dataVersions.windowTag(LocalDate.of(2019, 2, 10), LocalDate.of(2019, 2, 28), "JSON"));
+	}
+
+	@Test
+	public void shouldAnswerNotModifiedWhenLongPollRunsOut() {
+		String etag = this.dataVersions.windowTag(LocalDate.of(2019, 2, 10), LocalDate.of(2019, 2, 28), "JSON");
+
+		this.client.get().uri("/reservation?arrival=2019-02-10&departure=2019-02-28&wait=1")
+				.header(HttpHeaders.IF_NONE_MATCH, etag)
+				.exchange()
+				.expectStatus().isNotModified();
+		Mockito.verifyZeroInteractions(reservationService);
+	}
+
+	@Test
+	public void shouldAnswerLongPollWhenOneOfItsNightsChanges() {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+		String etag = this.dataVersions.windowTag(LocalDate.of(2019, 2, 10), LocalDate.of(2019, 2, 28), "JSON");
+		Thread writer = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				return;
+			}
+			ReservationChangedEvent event = new ReservationChangedEvent("id", LocalDate.of(2019, 2, 15), LocalDate.of(2019, 2, 17));
+			this.dataVersions.onReservationChanged(event);
+			this.changes.onReservationChanged(event);
+		});
+		writer.start();
+
+		String newTag = this.client.get().uri("/reservation?arrival=2019-02-10&departure=2019-02-28&wait=30")
+				.header(HttpHeaders.IF_NONE_MATCH, etag)
+				.exchange()
+				.expectStatus().isOk()
+				.returnResult(byte[].class)
+				.getResponseHeaders()
+				.getETag();
+		// then
+		assertThat(newTag).isNotEqualTo(etag);
+	}
+}
@@ -1,14 +1,26 @@
 package com.upgrade.codechallenge;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.upgrade.codechallenge.async.ReservationExecutor;
+import com.upgrade.codechallenge.cache.AvailabilityResponseCache;
+import com.upgrade.codechallenge.cache.DataVersions;
+import com.upgrade.codechallenge.cache.IdempotencyStore;
 import com.upgrade.codechallenge.controller.ReservationController;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
 import com.upgrade.codechallenge.exception.InternalServerErrorException;
 import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
 import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.ratelimit.RateLimiter;
 import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.BatchOutcome;
 import com.upgrade.codechallenge.util.Response;
+import com.upgrade.codechallenge.util.ResponseEncoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,20 +28,27 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.json.JacksonTester;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -44,6 +63,17 @@ public class ReservationControllerTests {
 
 	@Mock
 	private ReservationService reservationService;
+	@Spy
+	private AvailabilityResponseCache availabilityCache = new AvailabilityResponseCache();
+	@Spy
+	private DataVersions dataVersions = new DataVersions();
+	@Spy
+	private ReservationExecutor executor = ReservationExecutor.direct();
+	@Spy
+	private IdempotencyStore idempotencyStore = new IdempotencyStore(Duration.ofHours(1), 100, Clock.systemUTC());
+	// Three writes at once per email, then one a minute
+	@Spy
+	private RateLimiter rateLimiter = new RateLimiter(true, 60, 10, 1, 3, 100, Clock.systemUTC(), new SimpleMeterRegistry());
 	@InjectMocks
 	private ReservationController reservationController;
 	private Gson gson;
@@ -61,6 +91,15 @@ public class ReservationControllerTests {
 				.create();
 	}
 
+	// Handlers answer with a CompletableFuture, so their response is only there after the async dispatch
+	private MockHttpServletResponse perform(RequestBuilder request) throws Exception {
+		MvcResult result = this.mockMvc.perform(request).andReturn();
+		if (result.getRequest().isAsyncStarted()) {
+			result = this.mockMvc.perform(asyncDispatch(result)).andReturn();
+		}
+		return result.getResponse();
+	}
+
 	//POST TESTS
 	@Test
 	public void shouldCreateReservation() throws Exception {
@@ -74,16 +113,41 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 																.contentType(MediaType.APPLICATION_JSON)
-																.content(reservation.toString()))
-														.andReturn()
-														.getResponse();
+																.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
 	}
 
+	@Test
+	public void shouldLimitReservationsOfTheSameGuest() throws Exception {
+		Mockito.when(reservationService
+				.saveReservation(Mockito.any(Reservation.class)))
+				.thenReturn(new Response(null, UUID.randomUUID(), HttpStatus.OK));
+
+		JSONObject reservation = new JSONObject();
+		reservation.put("arrivalDate", LocalDate.now().plusDays(3));
+		reservation.put("departureDate", LocalDate.now().plusDays(6));
+		reservation.put("name", "Agustin Chirichigno");
+		reservation.put("email", "chirichignoa@gmail.com");
+
+		for (int i = 0; i < 3; i++) {
+			this.perform(post("/reservation")
+					.contentType(MediaType.APPLICATION_JSON)
+					.content(reservation.toString()));
+		}
+		MockHttpServletResponse response = this.perform(post("/reservation")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(reservation.toString()));
+
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+		assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("60");
+		Mockito.verify(reservationService, Mockito.times(3)).saveReservation(Mockito.any(Reservation.class));
+	}
+
 	@Test
 	public void shouldNotCreateReservationCampReserved() throws Exception {
 		Mockito.when(reservationService
@@ -96,11 +160,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -118,11 +180,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -140,11 +200,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -162,11 +220,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -184,11 +240,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -205,11 +259,9 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -226,16 +278,76 @@ public class ReservationControllerTests {
 		reservation.put("name", "Agustin Chirichigno");
 		reservation.put("email", "chirichignoa@gmail.com");
 
-		MockHttpServletResponse response = this.mockMvc.perform(post("/reservation")
+		MockHttpServletResponse response = this.perform(post("/reservation")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
 	}
 
+	@Test
+	public void shouldReplayReservationWithSameIdempotencyKey() throws Exception {
+		Mockito.when(reservationService
+				.saveReservation(Mockito.any(Reservation.class)))
+				.thenReturn(new Response(null, UUID.randomUUID().toString(), HttpStatus.OK));
+
+		JSONObject reservation = new JSONObject();
+		reservation.put("arrivalDate", LocalDate.now().plusDays(3));
+		reservation.put("departureDate", LocalDate.now().plusDays(6));
+		reservation.put("name", "Agustin Chirichigno");
+		reservation.put("email", "chirichignoa@gmail.com");
+
+		MockHttpServletResponse first = this.perform(post("/reservation")
+				.contentType(MediaType.APPLICATION_JSON)
+				.header(IdempotencyStore.HEADER, "retry-1")
+				.content(reservation.toString()));
+		MockHttpServletResponse retry = this.perform(post("/reservation")
+				.contentType(MediaType.APPLICATION_JSON)
+				.header(IdempotencyStore.HEADER, "retry-1")
+				.content(reservation.toString()));
+		reservation.put("departureDate", LocalDate.now().plusDays(5));
+		MockHttpServletResponse reused = this.perform(post("/reservation")
+				.contentType(MediaType.APPLICATION_JSON)
+				.header(IdempotencyStore.HEADER, "retry-1")
+				.content(reservation.toString()));
+
+		// then
+		assertThat(retry.getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(retry.getContentAsString()).isEqualTo(first.getContentAsString());
+		assertThat(reused.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY.value());
+		Mockito.verify(reservationService, Mockito.times(1)).saveReservation(Mockito.any(Reservation.class));
+	}
+
+	@Test
+	public void shouldCreateReservationsInBatch() throws Exception {
+		List<BatchOutcome> outcomes = new ArrayList<>();
+		outcomes.add(new BatchOutcome(0, new Response(null, "id", HttpStatus.OK)));
+		outcomes.add(new BatchOutcome(1, new Response("The camp is already reserved for that date range.", null, HttpStatus.BAD_REQUEST)));
+		Mockito.when(reservationService
+				.saveReservations(Mockito.anyList()))
+				.thenReturn(new Response(null, outcomes, HttpStatus.OK));
+
+		JSONObject reservation = new JSONObject();
+		reservation.put("arrivalDate", LocalDate.now().plusDays(3));
+		reservation.put("departureDate", LocalDate.now().plusDays(6));
+		reservation.put("name", "Agustin Chirichigno");
+		reservation.put("email", "chirichignoa@gmail.com");
+		JSONArray batch = new JSONArray();
+		batch.put(reservation);
+		batch.put(reservation);
+
+		MockHttpServletResponse response = this.perform(post("/reservation/batch")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(batch.toString()));
+
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		JSONArray content = new JSONObject(response.getContentAsString()).getJSONArray("content");
+		assertThat(content.getJSONObject(0).getInt("code")).isEqualTo(200);
+		assertThat(content.getJSONObject(1).getInt("code")).isEqualTo(400);
+	}
+
 	// GET TESTS
 	@Test
 	public void shouldGetReservations() throws Exception {
@@ -253,7 +365,7 @@ public class ReservationControllerTests {
 				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
 				.thenReturn(new Response(null, this.gson.toJson(reservationList), HttpStatus.OK));
 
-		MockHttpServletResponse response = this.mockMvc.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28")).andReturn().getResponse();
+		MockHttpServletResponse response = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28"));
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
 	}
@@ -264,7 +376,7 @@ public class ReservationControllerTests {
 				.getReservations(nullable(LocalDate.class), Mockito.any(LocalDate.class)))
 				.thenReturn(new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST));
 
-		MockHttpServletResponse response = this.mockMvc.perform(get("/reservation?departure=2019-02-28")).andReturn().getResponse();
+		MockHttpServletResponse response = this.perform(get("/reservation?departure=2019-02-28"));
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
 	}
@@ -275,11 +387,164 @@ public class ReservationControllerTests {
 				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
 				.thenReturn(new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST));
 
-		MockHttpServletResponse response = this.mockMvc.perform(get("/reservation?arrival=2019-03-10&departure=2019-02-28")).andReturn().getResponse();
+		MockHttpServletResponse response = this.perform(get("/reservation?arrival=2019-03-10&departure=2019-02-28"));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void shouldServeRepeatedReservationsWindowFromCache() throws Exception {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		MockHttpServletResponse first = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28"));
+		MockHttpServletResponse second = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28"));
+		// then
+		assertThat(second.getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(second.getContentAsString()).isEqualTo(first.getContentAsString());
+		Mockito.verify(reservationService, Mockito.times(1)).getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
+	}
+
+	@Test
+	public void shouldInvalidateOnlyOverlappingReservationsWindows() throws Exception {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-20"));
+		this.perform(get("/reservation?arrival=2019-03-10&departure=2019-03-20"));
+		this.availabilityCache.onReservationChanged(new ReservationChangedEvent("id", LocalDate.of(2019, 2, 15), LocalDate.of(2019, 2, 17)));
+		this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-20"));
+		this.perform(get("/reservation?arrival=2019-03-10&departure=2019-03-20"));
+		// then
+		Mockito.verify(reservationService, Mockito.times(2)).getReservations(LocalDate.of(2019, 2, 10), LocalDate.of(2019, 2, 20));
+		Mockito.verify(reservationService, Mockito.times(1)).getReservations(LocalDate.of(2019, 3, 10), LocalDate.of(2019, 3, 20));
+	}
+
+	@Test
+	public void shouldAnswerNotModifiedWhenWindowIsUnchanged() throws Exception {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		MockHttpServletResponse first = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28"));
+		String etag = first.getHeader(HttpHeaders.ETAG);
+		this.availabilityCache.clear();
+		MockHttpServletResponse second = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28")
+				.header(HttpHeaders.IF_NONE_MATCH, etag));
+		// then
+		assertThat(etag).isNotNull();
+		assertThat(second.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+		assertThat(second.getContentAsByteArray()).isEmpty();
+		Mockito.verify(reservationService, Mockito.times(1)).getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
+	}
+
+	@Test
+	public void shouldChangeWindowTagWhenOneOfItsNightsChanges() throws Exception {
+		Mockito.when(reservationService
+				.getReservations(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class)))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		String etag = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28")).getHeader(HttpHeaders.ETAG);
+		ReservationChangedEvent event = new ReservationChangedEvent("id", LocalDate.of(2019, 2, 15), LocalDate.of(2019, 2, 17));
+		this.availabilityCache.onReservationChanged(event);
+		this.dataVersions.onReservationChanged(event);
+		MockHttpServletResponse response = this.perform(get("/reservation?arrival=2019-02-10&departure=2019-02-28")
+				.header(HttpHeaders.IF_NONE_MATCH, etag));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(response.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+	}
+
+	@Test
+	public void shouldStreamReservations() throws Exception {
+		String resourceId = UUID.randomUUID().toString();
+		Mockito.when(reservationService
+				.streamReservations(Mockito.any(LocalDate.class), nullable(LocalDate.class), Mockito.any()))
+				.thenAnswer(invocation -> {
+					Consumer<Reservation> consumer = invocation.getArgument(2);
+					consumer.accept(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com", resourceId));
+					consumer.accept(new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5), "Juan Perez", "jp@gmail.com", resourceId));
+					return new Response(null, null, HttpStatus.OK);
+				});
+
+		MockHttpServletResponse response = this.perform(get("/reservation?arrival=2019-02-10&stream=true"));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		JSONObject body = new JSONObject(response.getContentAsString());
+		assertThat(body.isNull("error")).isTrue();
+		assertThat(body.getJSONArray("content").length()).isEqualTo(2);
+		assertThat(body.getJSONArray("content").getJSONObject(0).getString("id")).isEqualTo(resourceId);
+	}
+
+	@Test
+	public void shouldNotStreamReservationsArrivalDateIsMissing() throws Exception {
+		Mockito.when(reservationService
+				.streamReservations(nullable(LocalDate.class), nullable(LocalDate.class), Mockito.any()))
+				.thenReturn(new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST));
+
+		MockHttpServletResponse response = this.perform(get("/reservation?stream=true"));
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
 	}
 
+	@Test
+	public void shouldGetReservationsByEmail() throws Exception {
+		Mockito.when(reservationService
+				.getReservationsByEmail("jp@gmail.com"))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		MockHttpServletResponse response = this.perform(get("/reservation?email=jp@gmail.com"));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		Mockito.verify(reservationService, Mockito.never()).getReservations(nullable(LocalDate.class), nullable(LocalDate.class));
+	}
+
+	@Test
+	public void shouldGetReservationsAsCompactJsonByDefault() throws Exception {
+		Mockito.when(reservationService
+				.getReservationsByEmail("jp@gmail.com"))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		MockHttpServletResponse response = this.perform(get("/reservation?email=jp@gmail.com"));
+		// then
+		assertThat(response.getContentType()).startsWith(MediaType.APPLICATION_JSON_VALUE);
+		assertThat(response.getContentAsString()).isEqualTo("{\"error\":null,\"content\":[]}");
+	}
+
+	@Test
+	public void shouldGetReservationsAsPrettyJson() throws Exception {
+		Mockito.when(reservationService
+				.getReservationsByEmail("jp@gmail.com"))
+				.thenReturn(new Response(null, new ArrayList<>(), HttpStatus.OK));
+
+		MockHttpServletResponse response = this.perform(get("/reservation?email=jp@gmail.com&pretty=true"));
+		// then
+		assertThat(response.getContentAsString()).contains("\n");
+		assertThat(new JSONObject(response.getContentAsString()).getJSONArray("content").length()).isEqualTo(0);
+	}
+
+	@Test
+	public void shouldGetReservationsAsCbor() throws Exception {
+		String resourceId = UUID.randomUUID().toString();
+		List<Reservation> reservationList = new ArrayList<>();
+		reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com", resourceId));
+		Mockito.when(reservationService
+				.getReservationsByEmail("jp@gmail.com"))
+				.thenReturn(new Response(null, reservationList, HttpStatus.OK));
+
+		MockHttpServletResponse response = this.perform(get("/reservation?email=jp@gmail.com")
+				.accept(ResponseEncoder.APPLICATION_CBOR));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(response.getContentType()).isEqualTo(ResponseEncoder.APPLICATION_CBOR.toString());
+		JsonNode body = new ObjectMapper(new CBORFactory()).readTree(response.getContentAsByteArray());
+		assertThat(body.get("error").isNull()).isTrue();
+		assertThat(body.get("content").get(0).get("id").asText()).isEqualTo(resourceId);
+		assertThat(body.get("content").get(0).get("email").asText()).isEqualTo("jp@gmail.com");
+	}
+
 	@Test
 	public void shouldGetReservation() throws Exception {
 		String resourceId = UUID.randomUUID().toString();
@@ -291,11 +556,23 @@ public class ReservationControllerTests {
 				.getReservation(Mockito.anyString()))
 				.thenReturn(new Response(null, this.gson.toJson(reservationList), HttpStatus.OK));
 
-		MockHttpServletResponse response = this.mockMvc.perform(get("/reservation/" + resourceId)).andReturn().getResponse();
+		MockHttpServletResponse response = this.perform(get("/reservation/" + resourceId));
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
 	}
 
+	@Test
+	public void shouldAnswerNotModifiedWhenReservationIsUnchanged() throws Exception {
+		String resourceId = UUID.randomUUID().toString();
+		String etag = this.dataVersions.resourceTag(resourceId, ResponseEncoder.Format.JSON.name());
+
+		MockHttpServletResponse response = this.perform(get("/reservation/" + resourceId)
+				.header(HttpHeaders.IF_NONE_MATCH, etag));
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+		Mockito.verify(reservationService, Mockito.never()).getReservation(Mockito.anyString());
+	}
+
 	@Test
 	public void shouldNotGetReservation() throws Exception {
 		String resourceId = UUID.randomUUID().toString();
@@ -308,7 +585,7 @@ public class ReservationControllerTests {
 				.getReservation(Mockito.anyString()))
 				.thenReturn(new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND));
 
-		MockHttpServletResponse response = this.mockMvc.perform(get("/reservation/" + resourceId)).andReturn().getResponse();
+		MockHttpServletResponse response = this.perform(get("/reservation/" + resourceId));
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
 	}
@@ -320,7 +597,7 @@ public class ReservationControllerTests {
 		String resourceId = UUID.randomUUID().toString();
 
 		Mockito.when(reservationService
-				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class)))
+				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class), nullable(Long.class)))
 				.thenReturn(new Response(null, resourceId, HttpStatus.OK));
 
 
@@ -328,67 +605,59 @@ public class ReservationControllerTests {
 		reservation.put("arrivalDate", LocalDate.now().plusDays(1));
 		reservation.put("departureDate", LocalDate.now().plusDays(4));
 
-		MockHttpServletResponse response = this.mockMvc.perform(patch("/reservation/" + resourceId)
+		MockHttpServletResponse response = this.perform(patch("/reservation/" + resourceId)
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
 	}
 
 	@Test
-	public void shouldNotUpdateReservationDoesNotExists() throws Exception {
+	public void shouldUpdateReservationAtIfMatchVersion() throws Exception {
 		String resourceId = UUID.randomUUID().toString();
 		Mockito.when(reservationService
-				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class)))
-				.thenReturn(new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND));
+				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class), nullable(Long.class)))
+				.thenReturn(new Response("The reservation was modified by another request.", null, HttpStatus.PRECONDITION_FAILED));
 
 		JSONObject reservation = new JSONObject();
-		reservation.put("arrivalDate", LocalDate.now().plusDays(2));
-		reservation.put("departureDate", LocalDate.now().plusDays(5));
+		reservation.put("arrivalDate", LocalDate.now().plusDays(1));
+		reservation.put("departureDate", LocalDate.now().plusDays(4));
 
-		MockHttpServletResponse response = this.mockMvc.perform(patch("/reservation/" + resourceId)
+		MockHttpServletResponse response = this.perform(patch("/reservation/" + resourceId)
+				.header(HttpHeaders.IF_MATCH, "\"16a2b3c-0-r4-JSON-v7\"")
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
-		assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.PRECONDITION_FAILED.value());
+		Mockito.verify(reservationService).updateReservation(Mockito.eq(resourceId), Mockito.any(Reservation.class), Mockito.eq(7L));
 	}
 
 	@Test
-	public void shouldNotUpdateReservationDifferenceBetweenDateIsLessThanPreviousReservation() throws Exception {
-		// Assuming that exists a reservation with resourceId for three days
+	public void shouldNotUpdateReservationDoesNotExists() throws Exception {
 		String resourceId = UUID.randomUUID().toString();
 		Mockito.when(reservationService
-				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class)))
-				.thenReturn(new Response("The new reservation's duration must be the same than the previous", null, HttpStatus.BAD_REQUEST));
+				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class), nullable(Long.class)))
+				.thenReturn(new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND));
 
-		// The new reservation is for two days
 		JSONObject reservation = new JSONObject();
-		reservation.put("name", "Agustin Chirichigno");
-		reservation.put("email", "chirichignoa@gmail.com");
 		reservation.put("arrivalDate", LocalDate.now().plusDays(2));
-		reservation.put("departureDate", LocalDate.now().plusDays(4));
+		reservation.put("departureDate", LocalDate.now().plusDays(5));
 
-		MockHttpServletResponse response = this.mockMvc.perform(patch("/reservation/" + resourceId)
+		MockHttpServletResponse response = this.perform(patch("/reservation/" + resourceId)
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
-		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
 	}
 
 	@Test
 	public void shouldNotUpdateReservationCampReserved() throws Exception {
 		String resourceId = UUID.randomUUID().toString();
 		Mockito.when(reservationService
-				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class)))
+				.updateReservation(Mockito.any(String.class), Mockito.any(Reservation.class), nullable(Long.class)))
 				.thenThrow(new OccupiedDateRangeException("The camp is already reserved for that date range."));
 
 		// The new reservation is for two days
@@ -396,11 +665,9 @@ public class ReservationControllerTests {
 		reservation.put("arrivalDate", LocalDate.now().plusDays(2));
 		reservation.put("departureDate", LocalDate.now().plusDays(4));
 
-		MockHttpServletResponse response = this.mockMvc.perform(patch("/reservation/" + resourceId)
+		MockHttpServletResponse response = this.perform(patch("/reservation/" + resourceId)
 				.contentType(MediaType.APPLICATION_JSON)
-				.content(reservation.toString()))
-				.andReturn()
-				.getResponse();
+				.content(reservation.toString()));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
@@ -413,15 +680,29 @@ public class ReservationControllerTests {
 		String resourceId = UUID.randomUUID().toString();
 
 		Mockito.when(reservationService
-				.deleteReservation(Mockito.anyString()))
+				.deleteReservation(Mockito.anyString(), nullable(Long.class)))
+				.thenReturn(new Response(null, null, HttpStatus.OK));
+
+		MockHttpServletResponse response = this.perform(delete("/reservation/" + resourceId));
+
+		// then
+		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+	}
+
+	@Test
+	public void shouldDeleteReservationUnconditionallyWithoutIfMatch() throws Exception {
+		String resourceId = UUID.randomUUID().toString();
+
+		Mockito.when(reservationService
+				.deleteReservation(Mockito.anyString(), nullable(Long.class)))
 				.thenReturn(new Response(null, null, HttpStatus.OK));
 
-		MockHttpServletResponse response = this.mockMvc.perform(delete("/reservation/" + resourceId))
-				.andReturn()
-				.getResponse();
+		MockHttpServletResponse response = this.perform(delete("/reservation/" + resourceId)
+				.header(HttpHeaders.IF_MATCH, "*"));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+		Mockito.verify(reservationService).deleteReservation(resourceId, null);
 	}
 
 	@Test
@@ -429,12 +710,10 @@ public class ReservationControllerTests {
 		String resourceId = UUID.randomUUID().toString();
 
 		Mockito.when(reservationService
-				.deleteReservation(Mockito.anyString()))
+				.deleteReservation(Mockito.anyString(), nullable(Long.class)))
 				.thenReturn(new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND));
 
-		MockHttpServletResponse response = this.mockMvc.perform(delete("/reservation/" + resourceId))
-				.andReturn()
-				.getResponse();
+		MockHttpServletResponse response = this.perform(delete("/reservation/" + resourceId));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
@@ -445,12 +724,10 @@ public class ReservationControllerTests {
 		String resourceId = UUID.randomUUID().toString();
 
 		Mockito.when(reservationService
-				.deleteReservation(Mockito.anyString()))
+				.deleteReservation(Mockito.anyString(), nullable(Long.class)))
 				.thenThrow(new InternalServerErrorException("Some weird exception"));
 
-		MockHttpServletResponse response = this.mockMvc.perform(delete("/reservation/" + resourceId))
-				.andReturn()
-				.getResponse();
+		MockHttpServletResponse response = this.perform(delete("/reservation/" + resourceId));
 
 		// then
 		assertThat(response.getStatus()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR.value());
@@ -0,0 +1,69 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.async.ReservationExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReservationExecutorTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ReservationExecutor executor = new ReservationExecutor(true, 1, 1, this.registry);
+
+    @After
+    public void tearDown() {
+        this.executor.destroy();
+    }
+
+    @Test
+    public void shouldRunWorkOffTheCallingThread() throws Exception {
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> future = this.executor.submit(Thread::currentThread, () -> null);
+        assertThat(future.get(5, TimeUnit.SECONDS)).isNotEqualTo(caller);
+    }
+
+    @Test
+    public void shouldRefuseWorkWhenSaturated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        // One task holds the only worker, a second one takes the only queue slot
+        CompletableFuture<String> running = this.executor.submit(() -> {
+            started.countDown();
+            await(release);
+            return "done";
+        }, () -> "busy");
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> queued = this.executor.submit(() -> "done", () -> "busy");
+
+        CompletableFuture<String> refused = this.executor.submit(() -> "done", () -> "busy");
+        assertThat(refused.isDone()).isTrue();
+        assertThat(refused.get()).isEqualTo("busy");
+        assertThat(this.registry.get("reservation.executor.rejected").counter().count()).isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    }
+
+    @Test
+    public void shouldRunOnCallingThreadWhenDirect() throws Exception {
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> future = ReservationExecutor.direct().submit(Thread::currentThread, () -> null);
+        assertThat(future.isDone()).isTrue();
+        assertThat(future.get()).isEqualTo(caller);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.journal.ReservationJournal;
+import com.upgrade.codechallenge.model.Reservation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.actuate.health.Status;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReservationJournalTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LocalDate arrival = LocalDate.now().plusDays(3);
+
+    @Test
+    public void shouldRecoverReservationsAfterRestart() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        journal.created(journal.begin(), Arrays.asList(
+                new Reservation(this.arrival, this.arrival.plusDays(2), "Juan Perez", "jp@gmail.com", "a", 1),
+                new Reservation(this.arrival, this.arrival.plusDays(1), null, null, "b", 2)));
+        journal.moved(journal.begin(), "a", this.arrival.plusDays(1), this.arrival.plusDays(4));
+        journal.cancelled(journal.begin(), "b");
+        journal.destroy();
+
+        List<Reservation> recovered = this.reopen(path);
+        assertThat(recovered).hasSize(1);
+        Reservation reservation = recovered.get(0);
+        assertThat(reservation.getResourceId()).isEqualTo("a");
+        assertThat(reservation.getArrivalDate()).isEqualTo(this.arrival.plusDays(1));
+        assertThat(reservation.getDepartureDate()).isEqualTo(this.arrival.plusDays(4));
+        assertThat(reservation.getEmail()).isEqualTo("jp@gmail.com");
+        assertThat(reservation.getCampsite()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldGrowPastTheInitialMapping() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 64);
+        for (int i = 0; i < 100; i++) {
+            journal.created(journal.begin(), Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(1), "Juan Perez", "jp@gmail.com", "r" + i, 1)));
+        }
+        journal.destroy();
+
+        assertThat(this.reopen(path)).hasSize(100);
+    }
+
+    @Test
+    public void shouldStopAtATornRecord() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        journal.created(journal.begin(), Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(1), null, null, "a", 1)));
+        journal.created(journal.begin(), Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(1), null, null, "b", 2)));
+        journal.destroy();
+
+        // Cut the file in the middle of the second record, as a crash during its write would
+        int first = ByteBuffer.wrap(Files.readAllBytes(path)).getInt();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(8 + first + 5);
+        }
+
+        List<Reservation> recovered = this.reopen(path);
+        assertThat(recovered).extracting(Reservation::getResourceId).containsExactly("a");
+    }
+
+    @Test
+    public void shouldSkipCommandsOfAbortedTransactions() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        journal.created(journal.begin(), Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(2), "Juan Perez", "jp@gmail.com", "a", 1)));
+
+        // A move and a create that were synced, then their transactions failed to commit
+        long move = journal.begin();
+        journal.moved(move, "a", this.arrival.plusDays(5), this.arrival.plusDays(6));
+        long create = journal.begin();
+        journal.created(create, Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(1), null, null, "b", 2)));
+        journal.aborted(create);
+        journal.aborted(move);
+        assertThat(journal.health().getStatus()).isEqualTo(Status.UP);
+        journal.destroy();
+
+        List<Reservation> recovered = this.reopen(path);
+        assertThat(recovered).extracting(Reservation::getResourceId).containsExactly("a");
+        assertThat(recovered.get(0).getArrivalDate()).isEqualTo(this.arrival);
+        assertThat(recovered.get(0).getDepartureDate()).isEqualTo(this.arrival.plusDays(2));
+        assertThat(recovered.get(0).getName()).isEqualTo("Juan Perez");
+    }
+
+    @Test
+    public void shouldKeepCancellationsThroughOneRestart() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        journal.created(journal.begin(), Arrays.asList(new Reservation(this.arrival, this.arrival.plusDays(1), null, null, "a", 1)));
+        journal.cancelled(journal.begin(), "a");
+        journal.destroy();
+
+        // The restart that replays the cancellation still sees it, even if it is cut short
+        for (int i = 0; i < 2; i++) {
+            journal = new ReservationJournal(path, 4096);
+            assertThat(journal.recovered()).isEmpty();
+            assertThat(journal.recoveredCancellations()).containsExactly("a");
+            journal.destroy();
+        }
+        journal = new ReservationJournal(path, 4096);
+        assertThat(journal.recoveredCancellations()).isEmpty();
+        journal.destroy();
+    }
+
+    private List<Reservation> reopen(Path path) throws Exception {
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        try {
+            return journal.recovered();
+        } finally {
+            journal.destroy();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.metrics.ReservationMetrics;
+import com.upgrade.codechallenge.model.Reservation;
+import com.upgrade.codechallenge.service.ReservationService;
+import com.upgrade.codechallenge.util.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReservationMetricsTests {
+
+    @Mock
+    private ReservationService reservationService;
+    private SimpleMeterRegistry registry;
+    private ReservationService instrumented;
+
+    @Before
+    public void setup() {
+        this.registry = new SimpleMeterRegistry();
+        AspectJProxyFactory factory = new AspectJProxyFactory(this.reservationService);
+        factory.addAspect(new ReservationMetrics(this.registry));
+        this.instrumented = factory.getProxy();
+    }
+
+    @Test
+    public void shouldCountValidationRejectionsByRule() {
+        // The rule code is counted, whatever the wording of the message
+        Mockito.when(reservationService.saveReservation(Mockito.any(Reservation.class)))
+                .thenReturn(new Response("At most 3 nights, please.", null, HttpStatus.BAD_REQUEST, "max_nights"));
+
+        this.instrumented.saveReservation(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(10), "Juan Perez", "jp@gmail.com"));
+        assertThat(this.registry.get("reservation.validation.rejections")
+                .tag("method", "saveReservation")
+                .tag("rule", "max_nights")
+                .counter()
+                .count()).isEqualTo(1.0);
+        assertThat(this.registry.get("reservation.service")
+                .tag("outcome", "rejected")
+                .timer()
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountRejectionsWithoutRuleAsOther() {
+        Mockito.when(reservationService.saveReservation(Mockito.any(Reservation.class)))
+                .thenReturn(new Response("The campsite can be reserved for max 3 days.", null, HttpStatus.BAD_REQUEST));
+
+        this.instrumented.saveReservation(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(10), "Juan Perez", "jp@gmail.com"));
+        assertThat(this.registry.get("reservation.validation.rejections")
+                .tag("rule", "other")
+                .counter()
+                .count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void shouldCountConflicts() {
+        Mockito.when(reservationService.updateReservation(Mockito.anyString(), Mockito.any(Reservation.class)))
+                .thenThrow(new OccupiedDateRangeException("The camp is already reserved for that date range."));
+
+        try {
+            this.instrumented.updateReservation("id", new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null));
+            fail("The conflict must reach the caller");
+        } catch (OccupiedDateRangeException e) {
+            assertThat(this.registry.get("reservation.conflicts")
+                    .tag("method", "updateReservation")
+                    .counter()
+                    .count()).isEqualTo(1.0);
+        }
+    }
+}
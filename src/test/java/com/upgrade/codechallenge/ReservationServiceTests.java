@@ -3,32 +3,58 @@ package com.upgrade.codechallenge;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.cache.ReservationCache;
 import com.upgrade.codechallenge.exception.OccupiedDateRangeException;
+import com.upgrade.codechallenge.journal.ReservationJournal;
 import com.upgrade.codechallenge.model.Reservation;
 import com.upgrade.codechallenge.repository.ReservationRepository;
+import com.upgrade.codechallenge.service.AdmissionSlots;
+import com.upgrade.codechallenge.service.HoldRegistry;
+import com.upgrade.codechallenge.service.OccupancyIndex;
+import com.upgrade.codechallenge.service.ReservationService;
 import com.upgrade.codechallenge.service.ReservationServiceImpl;
+import com.upgrade.codechallenge.service.Waitlist;
+import com.upgrade.codechallenge.util.BatchOutcome;
 import com.upgrade.codechallenge.util.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.json.JacksonTester;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 
 @RunWith(MockitoJUnitRunner.class)
 @SpringBootTest
@@ -39,8 +65,22 @@ public class ReservationServiceTests {
 
     @Mock
     private ReservationRepository reservationRepository;
+    @Spy
+    private OccupancyIndex occupancyIndex = new OccupancyIndex(2);
+    @Spy
+    private AdmissionSlots admissionSlots = new AdmissionSlots(2);
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Spy
+    private ReservationCache reservationCache = new ReservationCache(2);
+    @Spy
+    private HoldRegistry holdRegistry = new HoldRegistry(this.admissionSlots, event -> {});
+    @Spy
+    private Waitlist waitlist = new Waitlist(this.holdRegistry, 100);
     @InjectMocks
     private ReservationServiceImpl reservationService;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     private Gson gson;
 
     @Before
@@ -56,6 +96,12 @@ public class ReservationServiceTests {
                 .create();
     }
 
+    @After
+    public void tearDown() {
+        // Every registry runs its own timing wheel thread
+        this.holdRegistry.destroy();
+    }
+
     // Save Reservation
     @Test
     public void shouldSaveReservation() throws Exception {
@@ -64,17 +110,27 @@ public class ReservationServiceTests {
                                         "Agustin Chirichigno",
                                         "chirichignoa@gmail.com");
 
-        // Mock repository's save method to assign an id
-        Mockito.when(reservationRepository.save(Mockito.any(Reservation.class)))
-                .thenAnswer((Answer<Reservation>) invocation -> {
-                    Reservation reservation = (Reservation) invocation.getArguments()[0];
-                    reservation.setId(1 + (long) (Math.random() * (10 - 1)));
-                    return reservation;
+        // Mock repository's saveAll method to assign an id
+        Mockito.when(reservationRepository.saveAll(Mockito.<Reservation>anyIterable()))
+                .thenAnswer((Answer<List<Reservation>>) invocation -> {
+                    List<Reservation> reservations = (List<Reservation>) invocation.getArguments()[0];
+                    for (Reservation reservation : reservations) {
+                        reservation.setId(1 + (long) (Math.random() * (10 - 1)));
+                    }
+                    return reservations;
                 });
 
         Response response = this.reservationService.saveReservation(r);
         assertThat(response.getContent().toString().length()).isGreaterThan(0);
         assertThat(response.getError()).isEqualTo(null);
+        // The three nights are written with a single batched call
+        Mockito.verify(reservationRepository, Mockito.times(1)).saveAll(Mockito.<Reservation>anyIterable());
+        Mockito.verify(reservationRepository, Mockito.never()).save(Mockito.any(Reservation.class));
+        // Cached windows holding those nights are invalidated
+        ArgumentCaptor<ReservationChangedEvent> event = ArgumentCaptor.forClass(ReservationChangedEvent.class);
+        Mockito.verify(eventPublisher).publishEvent(event.capture());
+        assertThat(event.getValue().getFrom()).isEqualTo(r.getArrivalDate());
+        assertThat(event.getValue().getTo()).isEqualTo(r.getDepartureDate());
     }
 
     @Test
@@ -154,6 +210,7 @@ public class ReservationServiceTests {
         Response response = this.reservationService.saveReservation(r);
         assertThat(response.getContent()).isEqualTo(null);
         assertThat(response).isEqualTo(correctResponse);
+        assertThat(response.getRule()).isEqualTo("max_nights");
     }
 
     @Test
@@ -172,6 +229,169 @@ public class ReservationServiceTests {
         }
     }
 
+    @Test
+    public void shouldNotSaveReservationDaysAlreadyClaimed() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(2),
+                LocalDate.now().plusDays(5),
+                "Agustin Chirichigno",
+                "chirichignoa@gmail.com");
+        this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(4), LocalDate.now().plusDays(5), UUID.randomUUID().toString());
+
+        try {
+            this.reservationService.saveReservation(r);
+        } catch (OccupiedDateRangeException e) {
+            assertThat(e.getMessage()).isEqualTo("The camp is already reserved for that date range.");
+        }
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+        // The nights claimed before the conflict are given back
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), UUID.randomUUID().toString())).isTrue();
+    }
+
+    @Test
+    public void shouldSaveSameNightsOnAnotherCampsite() {
+        this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(2), LocalDate.now().plusDays(5), UUID.randomUUID().toString());
+        Reservation r = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(5),
+                "Agustin Chirichigno", "chirichignoa@gmail.com", null, 2);
+
+        Response response = this.reservationService.saveReservation(r);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.OK);
+        ArgumentCaptor<List<Reservation>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(reservationRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).hasSize(3);
+        assertThat(saved.getValue()).extracting(Reservation::getCampsite).containsOnly(2);
+        // The nights of the second site are taken now
+        assertThat(this.admissionSlots.tryClaim(2, LocalDate.now().plusDays(4), LocalDate.now().plusDays(5), UUID.randomUUID().toString())).isFalse();
+    }
+
+    @Test
+    public void shouldNotSaveReservationOnUnknownCampsite() {
+        Reservation r = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(5),
+                "Agustin Chirichigno", "chirichignoa@gmail.com", null, 3);
+        Response correctResponse = new Response("The campsite must be between 1 and 2.", null, HttpStatus.BAD_REQUEST);
+
+        Response response = this.reservationService.saveReservation(r);
+        assertThat(response).isEqualTo(correctResponse);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
+    @Test
+    public void shouldGetOccupancyOfEveryCampsite() {
+        LocalDate night = LocalDate.now().plusDays(3);
+        List<Reservation> rows = new ArrayList<>();
+        rows.add(new Reservation(night, night.plusDays(1), "Ana Lopez", "al@gmail.com", "second", 2));
+        rows.add(new Reservation(night, night.plusDays(1), "Juan Perez", "jp@gmail.com", "first", 1));
+        rows.add(new Reservation(night.plusDays(1), night.plusDays(2), "Ana Lopez", "al@gmail.com", "second", 2));
+        this.occupancyIndex.load(LocalDate.now().minusDays(1), rows);
+
+        Response response = this.reservationService.getReservations(night, night.plusDays(2));
+        List<Reservation> nights = (List<Reservation>) response.getContent();
+        // By night, then by site
+        assertThat(nights).extracting(Reservation::getResourceId).containsExactly("first", "second", "second");
+        assertThat(nights).extracting(Reservation::getCampsite).containsExactly(1, 2, 2);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
+    @Test
+    public void shouldSaveBatchKeepingFirstOfOverlappingItems() {
+        List<Reservation> batch = new ArrayList<>();
+        batch.add(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com"));
+        batch.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(5), "Ana Lopez", "al@gmail.com"));
+        batch.add(new Reservation(LocalDate.now().plusDays(10), LocalDate.now().plusDays(20), "Ana Lopez", "al@gmail.com"));
+        batch.add(new Reservation(LocalDate.now().plusDays(6), LocalDate.now().plusDays(7), "Ana Lopez", "al@gmail.com"));
+
+        Response response = this.reservationService.saveReservations(batch);
+        List<BatchOutcome> outcomes = (List<BatchOutcome>) response.getContent();
+        assertThat(response.getCode()).isEqualTo(HttpStatus.OK);
+        assertThat(outcomes).extracting(BatchOutcome::getCode).containsExactly(200, 400, 400, 200);
+        assertThat(outcomes.get(1).getError()).isEqualTo("The camp is already reserved for that date range.");
+        assertThat(outcomes.get(2).getError()).isEqualTo("The campsite can be reserved for max 3 days.");
+        // The three nights of both accepted items go out in one batched call
+        ArgumentCaptor<List<Reservation>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(reservationRepository, Mockito.times(1)).saveAll(saved.capture());
+        assertThat(saved.getValue()).hasSize(3);
+        Mockito.verify(eventPublisher, Mockito.times(2)).publishEvent(Mockito.any(ReservationChangedEvent.class));
+    }
+
+    @Test
+    public void shouldSaveBatchOfSameNightsOnDifferentCampsites() {
+        List<Reservation> batch = new ArrayList<>();
+        batch.add(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com", null, 1));
+        batch.add(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), "Ana Lopez", "al@gmail.com", null, 2));
+        batch.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Ana Lopez", "al@gmail.com", null, 2));
+
+        Response response = this.reservationService.saveReservations(batch);
+        List<BatchOutcome> outcomes = (List<BatchOutcome>) response.getContent();
+        assertThat(outcomes).extracting(BatchOutcome::getCode).containsExactly(200, 200, 400);
+        ArgumentCaptor<List<Reservation>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(reservationRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).extracting(Reservation::getCampsite).containsExactly(1, 1, 2, 2);
+    }
+
+    @Test
+    public void shouldNotSaveBatchOverTheLimit() {
+        List<Reservation> batch = new ArrayList<>();
+        for (int i = 0; i <= ReservationService.MAX_BATCH_SIZE; i++) {
+            batch.add(new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(3), "Juan Perez", "jp@gmail.com"));
+        }
+
+        Response response = this.reservationService.saveReservations(batch);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
+    @Test
+    public void shouldConfirmHoldUnderItsId() {
+        Reservation dates = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null);
+        String holdId = (String) this.reservationService.holdReservation(dates, 10).getContent();
+
+        // Nobody else can take the held nights
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), UUID.randomUUID().toString())).isFalse();
+        Response response = this.reservationService.confirmHold(holdId, new Reservation(null, null, "Juan Perez", "jp@gmail.com"));
+        assertThat(response.getCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getContent()).isEqualTo(holdId);
+        assertThat(this.holdRegistry.size()).isEqualTo(0);
+        ArgumentCaptor<List<Reservation>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(reservationRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).extracting(Reservation::getResourceId).containsOnly(holdId);
+        assertThat(saved.getValue()).extracting(Reservation::getEmail).containsOnly("jp@gmail.com");
+    }
+
+    @Test
+    public void shouldGiveBackHoldWhenConfirmationConflicts() {
+        Reservation dates = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null);
+        String holdId = (String) this.reservationService.holdReservation(dates, 10).getContent();
+        Mockito.when(reservationRepository.saveAll(Mockito.<Reservation>anyIterable()))
+                .thenThrow(new DataIntegrityViolationException("Unique index or primary key violation"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            this.reservationService.confirmHold(holdId, new Reservation(null, null, "Juan Perez", "jp@gmail.com"));
+            fail("The conflict must reach the caller");
+        } catch (OccupiedDateRangeException e) {
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        ArgumentCaptor<HoldRegistry.Hold> givenBack = ArgumentCaptor.forClass(HoldRegistry.Hold.class);
+        Mockito.verify(holdRegistry).giveBack(givenBack.capture());
+        assertThat(givenBack.getValue().getId()).isEqualTo(holdId);
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), UUID.randomUUID().toString())).isTrue();
+    }
+
+    @Test
+    public void shouldNotConfirmReleasedHold() {
+        Reservation dates = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), null, null);
+        String holdId = (String) this.reservationService.holdReservation(dates, 10).getContent();
+
+        assertThat(this.reservationService.releaseHold(holdId).getCode()).isEqualTo(HttpStatus.OK);
+        Response response = this.reservationService.confirmHold(holdId, new Reservation(null, null, "Juan Perez", "jp@gmail.com"));
+        assertThat(response.getCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(2), LocalDate.now().plusDays(4), UUID.randomUUID().toString())).isTrue();
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
     // Get Reservations
     @Test
     public void shouldGetReservations() {
@@ -195,6 +415,36 @@ public class ReservationServiceTests {
         assertThat(((List<Reservation>)response.getContent()).size()).isEqualTo(reservationList.size());
     }
 
+    @Test
+    public void shouldGetReservationsFromOccupancyIndex() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4),	"Juan Perez", "jp@gmail.com", resourceId));
+        reservationList.add(new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5),	"Juan Perez", "jp@gmail.com", resourceId));
+        reservationList.add(new Reservation(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41),	"Juan Perez", "jp@gmail.com", resourceId));
+        this.occupancyIndex.load(LocalDate.now(), reservationList);
+
+        Response response = this.reservationService.getReservations(LocalDate.now(), null);
+        assertThat(response.getError()).isEqualTo(null);
+        assertThat(((List<Reservation>)response.getContent()).size()).isEqualTo(2);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
+    @Test
+    public void shouldStreamReservationsFromOccupancyIndex() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4),	"Juan Perez", "jp@gmail.com", resourceId));
+        reservationList.add(new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5),	"Juan Perez", "jp@gmail.com", resourceId));
+        this.occupancyIndex.load(LocalDate.now(), reservationList);
+
+        List<Reservation> streamed = new ArrayList<>();
+        Response response = this.reservationService.streamReservations(LocalDate.now(), null, streamed::add);
+        assertThat(response.getError()).isEqualTo(null);
+        assertThat(streamed.size()).isEqualTo(2);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
     @Test
     public void shouldNotGetReservationsArrivalDateMissing() {
         Response correctResponse = new Response("You must specify an arrival date.", null, HttpStatus.BAD_REQUEST);
@@ -270,6 +520,152 @@ public class ReservationServiceTests {
         assertThat(response).isEqualTo(correctResponse);
     }
 
+    @Test
+    public void shouldGetReservationFromCacheUntilItChanges() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com", resourceId));
+        Mockito.when(reservationRepository.findReservationByResourceId(resourceId))
+                .thenReturn(reservationList);
+
+        this.reservationService.getReservation(resourceId);
+        Response response = this.reservationService.getReservation(resourceId);
+        assertThat((List<Reservation>) response.getContent()).hasSize(1);
+        Mockito.verify(reservationRepository, Mockito.times(1)).findReservationByResourceId(resourceId);
+        assertThat(this.reservationCache.getHitCount()).isEqualTo(1);
+        assertThat(this.reservationCache.getMissCount()).isEqualTo(1);
+
+        // A committed write to the reservation drops it from the cache
+        this.reservationCache.onReservationChanged(new ReservationChangedEvent(resourceId, null, null));
+        this.reservationService.getReservation(resourceId);
+        Mockito.verify(reservationRepository, Mockito.times(2)).findReservationByResourceId(resourceId);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedReservation() {
+        Mockito.when(reservationRepository.findReservationByResourceId(Mockito.anyString()))
+                .thenAnswer(invocation -> {
+                    List<Reservation> reservations = new ArrayList<>();
+                    reservations.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Juan Perez", "jp@gmail.com", invocation.getArgument(0)));
+                    return reservations;
+                });
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        this.reservationCache.bindTo(registry);
+        this.reservationService.getReservation("a");
+        this.reservationService.getReservation("b");
+        this.reservationService.getReservation("a");
+        this.reservationService.getReservation("c");
+        assertThat(this.reservationCache.size()).isEqualTo(2);
+        assertThat(this.reservationCache.getEvictionCount()).isEqualTo(1);
+        assertThat(registry.get("reservation.cache.evictions").functionCounter().count()).isEqualTo(1.0);
+        assertThat(registry.get("reservation.cache.misses").functionCounter().count()).isEqualTo(3.0);
+        assertThat(registry.get("reservation.cache.size").gauge().value()).isEqualTo(2.0);
+        // "b" was the least recently used one
+        this.reservationService.getReservation("a");
+        this.reservationService.getReservation("b");
+        Mockito.verify(reservationRepository, Mockito.times(1)).findReservationByResourceId("a");
+        Mockito.verify(reservationRepository, Mockito.times(2)).findReservationByResourceId("b");
+    }
+
+    // Get Reservations by email
+    @Test
+    public void shouldGetReservationsByEmail() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4),	"Juan Perez", "jp@gmail.com", resourceId));
+        reservationList.add(new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5),	"Juan Perez", "jp@gmail.com", resourceId));
+        Mockito.when(reservationRepository.findReservationByEmail("jp@gmail.com"))
+                .thenReturn(reservationList);
+
+        Response response = this.reservationService.getReservationsByEmail("jp@gmail.com");
+        assertThat(response.getError()).isEqualTo(null);
+        assertThat(((List<Reservation>)response.getContent()).size()).isEqualTo(reservationList.size());
+    }
+
+    @Test
+    public void shouldNotGetReservationsByEmailMissing() {
+        Response correctResponse = new Response("You must specify an email.", null, HttpStatus.BAD_REQUEST);
+
+        Response response = this.reservationService.getReservationsByEmail(" ");
+        assertThat(response).isEqualTo(correctResponse);
+        Mockito.verifyZeroInteractions(this.reservationRepository);
+    }
+
+    @Test
+    public void shouldAbortJournaledReservationWhenCommitFails() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        ReflectionTestUtils.setField(this.reservationService, "journal", journal);
+        Reservation r = new Reservation(LocalDate.now().plusDays(2), LocalDate.now().plusDays(5), "Agustin Chirichigno", "chirichignoa@gmail.com");
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            Response response = this.reservationService.saveReservation(r);
+            assertThat(response.getCode()).isEqualTo(HttpStatus.OK);
+            // The journal is synced before the commit, which then fails
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+            journal.destroy();
+        }
+
+        ReservationJournal reopened = new ReservationJournal(path, 4096);
+        try {
+            assertThat(reopened.recovered()).isEmpty();
+        } finally {
+            reopened.destroy();
+        }
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(2), LocalDate.now().plusDays(5), "other")).isTrue();
+    }
+
+    @Test
+    public void shouldReplayJournalAndSkipConflictingReservations() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("reservations.journal");
+        LocalDate arrival = LocalDate.now().plusDays(3);
+        ReservationJournal journal = new ReservationJournal(path, 4096);
+        journal.created(journal.begin(), Arrays.asList(
+                new Reservation(arrival, arrival.plusDays(1), "Juan Perez", "jp@gmail.com", "a", 1),
+                new Reservation(arrival.plusDays(5), arrival.plusDays(7), "Juan Perez", "jp@gmail.com", "b", 1),
+                new Reservation(arrival.plusDays(10), arrival.plusDays(11), "Juan Perez", "jp@gmail.com", "c", 1)));
+        journal.moved(journal.begin(), "b", arrival.plusDays(6), arrival.plusDays(8));
+        journal.cancelled(journal.begin(), "c");
+        journal.destroy();
+
+        PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+        ReservationJournal reopened = new ReservationJournal(path, 4096);
+        ReflectionTestUtils.setField(this.reservationService, "journal", reopened);
+        ReflectionTestUtils.setField(this.reservationService, "transactionManager", transactionManager);
+        // "b" is still at the dates it had before it was moved
+        List<Reservation> before = new ArrayList<>();
+        before.add(new Reservation(arrival.plusDays(5), arrival.plusDays(6), "Juan Perez", "jp@gmail.com", "b", 1));
+        before.add(new Reservation(arrival.plusDays(6), arrival.plusDays(7), "Juan Perez", "jp@gmail.com", "b", 1));
+        Mockito.when(this.reservationRepository.findReservationByResourceId("a")).thenReturn(new ArrayList<>());
+        Mockito.when(this.reservationRepository.findReservationByResourceId("b")).thenReturn(before);
+        // Another booking already holds the night of "a"
+        Mockito.when(this.reservationRepository.saveAll(Mockito.<Reservation>anyIterable()))
+                .thenThrow(new DataIntegrityViolationException("Unique index or primary key violation"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        try {
+            this.reservationService.init();
+        } finally {
+            reopened.destroy();
+        }
+
+        ArgumentCaptor<Iterable<Reservation>> inserted = ArgumentCaptor.forClass(Iterable.class);
+        Mockito.verify(this.reservationRepository, Mockito.times(2)).saveAll(inserted.capture());
+        assertThat(inserted.getAllValues().get(1)).extracting(Reservation::getArrivalDate)
+                .containsExactly(arrival.plusDays(6), arrival.plusDays(7));
+        Mockito.verify(this.reservationRepository).deleteByResourceId("b");
+        Mockito.verify(this.reservationRepository).deleteByResourceId("c");
+        // The conflicting reservation rolled back its own transaction only
+        Mockito.verify(transactionManager, Mockito.times(1)).rollback(Mockito.any());
+        Mockito.verify(transactionManager, Mockito.times(2)).commit(Mockito.any());
+    }
+
     // Update Reservation
     @Test
     public void shouldUpdateReservation() {
@@ -288,6 +684,8 @@ public class ReservationServiceTests {
         // Mock repository's save method to assign an id
         Mockito.when(this.reservationRepository.findReservationByResourceId(Mockito.anyString()))
                 .thenReturn(reservationList);
+        Mockito.when(this.reservationRepository.incrementVersion(resourceId, 0L))
+                .thenReturn(3);
 
         Reservation toModify = new Reservation(LocalDate.now().plusDays(8), LocalDate.now().plusDays(11), null, null, resourceId);
 
@@ -312,10 +710,12 @@ public class ReservationServiceTests {
         // Mock repository's save method to assign an id
         Mockito.when(this.reservationRepository.findReservationByResourceId(Mockito.anyString()))
                 .thenReturn(reservationList);
+        Mockito.when(this.reservationRepository.incrementVersion(resourceId, 0L))
+                .thenReturn(3);
 
-        Mockito.doThrow(new OccupiedDateRangeException("The camp is already reserved for that date range."))
+        Mockito.doThrow(new RuntimeException("Unique index or primary key violation"))
                 .when(this.reservationRepository)
-                .updateReservationDates(Mockito.any(LocalDate.class), Mockito.any(LocalDate.class),Mockito.anyLong());
+                .saveAll(Mockito.<Reservation>anyIterable());
 
         Reservation toModify = new Reservation(LocalDate.now().plusDays(8), LocalDate.now().plusDays(11), null, null, resourceId);
         try {
@@ -325,6 +725,100 @@ public class ReservationServiceTests {
         }
     }
 
+    @Test
+    public void shouldUpdateReservationOnlyChangedNights() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        Reservation r = new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+        r.setId(1L);
+        reservationList.add(r);
+        r = new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+        r.setId(2L);
+        reservationList.add(r);
+        r = new Reservation(LocalDate.now().plusDays(5), LocalDate.now().plusDays(6),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+        r.setId(3L);
+        reservationList.add(r);
+        Mockito.when(this.reservationRepository.findReservationByResourceId(Mockito.anyString()))
+                .thenReturn(reservationList);
+        Mockito.when(this.reservationRepository.incrementVersion(resourceId, 0L))
+                .thenReturn(3);
+
+        // Shift one night later: two nights kept, one deleted and one inserted
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(7), null, null, resourceId);
+        Response response = this.reservationService.updateReservation(resourceId, toModify);
+        assertThat(response).isEqualTo(new Response(null, resourceId, HttpStatus.OK));
+
+        ArgumentCaptor<Iterable<Reservation>> removed = ArgumentCaptor.forClass(Iterable.class);
+        Mockito.verify(this.reservationRepository, Mockito.times(1)).deleteInBatch(removed.capture());
+        assertThat(removed.getValue()).extracting(Reservation::getId).containsExactly(1L);
+        ArgumentCaptor<Iterable<Reservation>> added = ArgumentCaptor.forClass(Iterable.class);
+        Mockito.verify(this.reservationRepository, Mockito.times(1)).saveAll(added.capture());
+        assertThat(added.getValue()).extracting(Reservation::getArrivalDate)
+                .containsExactly(LocalDate.now().plusDays(6));
+        Mockito.verify(this.reservationRepository, Mockito.never()).save(Mockito.any(Reservation.class));
+    }
+
+    @Test
+    public void shouldUpdateReservationWithOneStatementPerKind() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Reservation r = new Reservation(LocalDate.now().plusDays(3 + i), LocalDate.now().plusDays(4 + i), "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+            r.setId((long) i + 1);
+            r.setVersion(2);
+            reservationList.add(r);
+        }
+        Mockito.when(this.reservationRepository.findReservationByResourceId(resourceId))
+                .thenReturn(reservationList);
+        Mockito.when(this.reservationRepository.incrementVersion(resourceId, 2L))
+                .thenReturn(3);
+
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(7), null, null, resourceId);
+        Response response = this.reservationService.updateReservation(resourceId, toModify);
+        assertThat(response).isEqualTo(new Response(null, resourceId, HttpStatus.OK));
+
+        // One version bump for all the nights, one batch delete and one batch insert; the
+        // kept nights are not written on their own
+        Mockito.verify(this.reservationRepository, Mockito.times(1)).incrementVersion(resourceId, 2L);
+        Mockito.verify(this.reservationRepository, Mockito.times(1)).deleteInBatch(Mockito.anyIterable());
+        Mockito.verify(this.reservationRepository, Mockito.times(1)).saveAll(Mockito.anyIterable());
+        Mockito.verify(this.reservationRepository, Mockito.never()).deleteAll(Mockito.anyIterable());
+        Mockito.verify(this.reservationRepository, Mockito.never()).save(Mockito.any(Reservation.class));
+    }
+
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void shouldNotUpdateReservationChangedByAnotherWriter() {
+        String resourceId = UUID.randomUUID().toString();
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
+        reservationList.add(new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(5), "Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
+        Mockito.when(this.reservationRepository.findReservationByResourceId(resourceId))
+                .thenReturn(reservationList);
+        // Another transaction moved the nights to the next version after they were read
+        Mockito.when(this.reservationRepository.incrementVersion(resourceId, 0L))
+                .thenReturn(0);
+
+        this.reservationService.updateReservation(resourceId, new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(6), null, null, resourceId));
+    }
+
+    @Test
+    public void shouldNotUpdateReservationModifiedSinceRead() {
+        String resourceId = UUID.randomUUID().toString();
+        Reservation r = new Reservation(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId);
+        r.setVersion(2);
+        List<Reservation> reservationList = new ArrayList<>();
+        reservationList.add(r);
+        Mockito.when(this.reservationRepository.findReservationByResourceId(Mockito.anyString()))
+                .thenReturn(reservationList);
+
+        Reservation toModify = new Reservation(LocalDate.now().plusDays(4), LocalDate.now().plusDays(6), null, null, resourceId);
+        Response response = this.reservationService.updateReservation(resourceId, toModify, 1L);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        Mockito.verify(this.reservationRepository, Mockito.never()).saveAll(Mockito.any());
+        // The nights were never claimed for the new range
+        assertThat(this.admissionSlots.tryClaim(1, LocalDate.now().plusDays(5), LocalDate.now().plusDays(6), "other")).isTrue();
+    }
+
     @Test
     public void shouldNotUpdateReservationDoesNotExists() {
         String resourceId = UUID.randomUUID().toString();
@@ -434,18 +928,51 @@ public class ReservationServiceTests {
     @Test
     public void shouldDeleteReservation() {
         String resourceId = UUID.randomUUID().toString();
-        List<Reservation> reservationList = new ArrayList<>();
-        reservationList.add(new Reservation(LocalDate.now(), LocalDate.now().plusDays(1),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
-        reservationList.add(new Reservation(LocalDate.now(), LocalDate.now().plusDays(2),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
-        reservationList.add(new Reservation(LocalDate.now(), LocalDate.now().plusDays(3),	"Agustin Chirichigno", "chirichignoa@gmail.com", resourceId));
 
-        // Mock repository's save method to assign an id
-        Mockito.when(reservationRepository.findReservationByResourceId(Mockito.anyString()))
-                .thenReturn(reservationList);
+        // Mock repository's bulk delete to report three nights removed
+        Mockito.when(reservationRepository.deleteByResourceId(Mockito.anyString()))
+                .thenReturn(3);
 
         Response response = this.reservationService.deleteReservation(resourceId);
         assertThat(response.getContent()).isEqualTo(null);
         assertThat(response.getError()).isEqualTo(null);
+        Mockito.verify(reservationRepository, Mockito.never()).findReservationByResourceId(Mockito.anyString());
+    }
+
+    @Test
+    public void shouldDeleteReservationAtExpectedVersion() {
+        String resourceId = UUID.randomUUID().toString();
+        Mockito.when(this.reservationRepository.deleteByResourceIdAndVersion(resourceId, 4L))
+                .thenReturn(3);
+
+        Response response = this.reservationService.deleteReservation(resourceId, 4L);
+        assertThat(response).isEqualTo(new Response(null, null, HttpStatus.OK));
+        // One bulk statement that also checks the version, with nothing read first
+        Mockito.verify(reservationRepository).deleteByResourceIdAndVersion(resourceId, 4L);
+        Mockito.verify(reservationRepository, Mockito.never()).findReservationByResourceId(Mockito.anyString());
+        Mockito.verify(reservationRepository, Mockito.never()).existsByResourceId(Mockito.anyString());
+    }
+
+    @Test
+    public void shouldNotDeleteReservationModifiedSinceRead() {
+        String resourceId = UUID.randomUUID().toString();
+        Mockito.when(this.reservationRepository.deleteByResourceIdAndVersion(resourceId, 4L))
+                .thenReturn(0);
+        Mockito.when(this.reservationRepository.existsByResourceId(resourceId))
+                .thenReturn(true);
+
+        Response response = this.reservationService.deleteReservation(resourceId, 4L);
+        assertThat(response.getCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    public void shouldNotDeleteReservationAtVersionDoesNotExist() {
+        String resourceId = UUID.randomUUID().toString();
+        Mockito.when(this.reservationRepository.deleteByResourceIdAndVersion(resourceId, 4L))
+                .thenReturn(0);
+
+        Response response = this.reservationService.deleteReservation(resourceId, 4L);
+        assertThat(response).isEqualTo(new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND));
     }
 
     @Test
@@ -453,9 +980,9 @@ public class ReservationServiceTests {
         String resourceId = UUID.randomUUID().toString();
         Response correctResponse = new Response("Reservation does not exist", null, HttpStatus.NOT_FOUND);
 
-        // Mock repository's save method to assign an id
-        Mockito.when(reservationRepository.findReservationByResourceId(Mockito.anyString()))
-                .thenReturn(new ArrayList<>());
+        // Mock repository's bulk delete to report that nothing matched
+        Mockito.when(reservationRepository.deleteByResourceId(Mockito.anyString()))
+                .thenReturn(0);
 
         Response response = this.reservationService.deleteReservation(resourceId);
         assertThat(response.getContent()).isEqualTo(null);
@@ -465,13 +992,13 @@ public class ReservationServiceTests {
     @Test
     public void shouldNotDeleteReservationInternalServerError() {
         String resourceId = UUID.randomUUID().toString();
-        // Mock repository's save method to assign an id
-        Mockito.when(reservationRepository.findReservationByResourceId(Mockito.anyString()))
+        // Mock repository's bulk delete to fail
+        Mockito.when(reservationRepository.deleteByResourceId(Mockito.anyString()))
                 .thenThrow(new RuntimeException("Some weird exception"));
         try {
             Response response = this.reservationService.deleteReservation(resourceId);
         } catch(RuntimeException e) {
-            assertThat(e.getMessage()).isEqualTo("Some weird exception");
+            assertThat(e.getMessage()).isEqualTo("There is an internal problem in the server.");
         }
     }
 }
@@ -0,0 +1,53 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.util.TimingWheel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimingWheelTests {
+
+    // Four 10 ms slots, so most tasks below wait more than one turn
+    private final TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 4, "timing-wheel-test");
+
+    @After
+    public void tearDown() {
+        this.wheel.stop();
+    }
+
+    @Test
+    public void shouldRunTasksOnceTheirDelayHasPassed() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        long start = System.nanoTime();
+        long[] ranAfter = new long[2];
+        this.wheel.schedule(() -> {
+            ranAfter[0] = System.nanoTime() - start;
+            done.countDown();
+        }, 25, TimeUnit.MILLISECONDS);
+        this.wheel.schedule(() -> {
+            ranAfter[1] = System.nanoTime() - start;
+            done.countDown();
+        }, 120, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(ranAfter[0]).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(25));
+        assertThat(ranAfter[1]).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(120));
+    }
+
+    @Test
+    public void shouldNotRunCancelledTasks() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch later = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = this.wheel.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        this.wheel.schedule(later::countDown, 80, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+
+        assertThat(later.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(runs.get()).isEqualTo(0);
+    }
+}
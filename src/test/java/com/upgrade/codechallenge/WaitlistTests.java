@@ -0,0 +1,136 @@
+package com.upgrade.codechallenge;
+
+import com.upgrade.codechallenge.event.HoldReleasedEvent;
+import com.upgrade.codechallenge.event.ReservationChangedEvent;
+import com.upgrade.codechallenge.service.AdmissionSlots;
+import com.upgrade.codechallenge.service.HoldRegistry;
+import com.upgrade.codechallenge.service.Waitlist;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WaitlistTests {
+
+    private final LocalDate arrival = LocalDate.now().plusDays(5);
+    private final AdmissionSlots admissionSlots = new AdmissionSlots();
+    private Waitlist waitlist;
+    // Released holds are handed straight back to the waitlist, as the application context does
+    private final HoldRegistry holdRegistry = new HoldRegistry(this.admissionSlots, event -> {
+        if (event instanceof HoldReleasedEvent) {
+            this.waitlist.onHoldReleased((HoldReleasedEvent) event);
+        }
+    });
+
+    {
+        this.waitlist = new Waitlist(this.holdRegistry, 100);
+    }
+
+    @After
+    public void tearDown() {
+        this.holdRegistry.destroy();
+    }
+
+    @Test
+    public void shouldOfferFreeNightsRightAway() {
+        Waitlist.Waiter waiter = this.waitlist.join(1, this.arrival, this.arrival.plusDays(2));
+
+        assertThat(waiter.getStatus()).isEqualTo(Waitlist.Status.OFFERED);
+        assertThat(this.holdRegistry.contains(waiter.getHoldId())).isTrue();
+    }
+
+    @Test
+    public void shouldOfferFreedNightsToTheOldestCompatibleWaiter() {
+        this.admissionSlots.tryClaim(1, this.arrival, this.arrival.plusDays(3), "booked");
+        Waitlist.Waiter first = this.waitlist.join(1, this.arrival, this.arrival.plusDays(2));
+        Waitlist.Waiter second = this.waitlist.join(1, this.arrival.plusDays(1), this.arrival.plusDays(3));
+        Waitlist.Waiter elsewhere = this.waitlist.join(1, this.arrival.plusDays(10), this.arrival.plusDays(11));
+        assertThat(first.getStatus()).isEqualTo(Waitlist.Status.WAITING);
+
+        this.admissionSlots.release("booked");
+        this.waitlist.onReservationChanged(new ReservationChangedEvent("booked", this.arrival, this.arrival.plusDays(3)));
+
+        assertThat(first.getStatus()).isEqualTo(Waitlist.Status.OFFERED);
+        // The second one wants a night of the first offer
+        assertThat(second.getStatus()).isEqualTo(Waitlist.Status.WAITING);
+        assertThat(elsewhere.getStatus()).isEqualTo(Waitlist.Status.OFFERED);
+    }
+
+    @Test
+    public void shouldPassOfferOnWhenTheWaiterLeaves() {
+        this.admissionSlots.tryClaim(1, this.arrival, this.arrival.plusDays(2), "booked");
+        Waitlist.Waiter first = this.waitlist.join(1, this.arrival, this.arrival.plusDays(2));
+        Waitlist.Waiter second = this.waitlist.join(1, this.arrival, this.arrival.plusDays(1));
+        this.admissionSlots.release("booked");
+        this.waitlist.onReservationChanged(new ReservationChangedEvent("booked", this.arrival, this.arrival.plusDays(2)));
+
+        assertThat(this.waitlist.leave(first.getId())).isTrue();
+
+        assertThat(this.waitlist.find(first.getId())).isNull();
+        assertThat(second.getStatus()).isEqualTo(Waitlist.Status.OFFERED);
+    }
+
+    @Test
+    public void shouldDropWaiterOnceTheOfferIsConfirmed() {
+        Waitlist.Waiter waiter = this.waitlist.join(1, this.arrival, this.arrival.plusDays(2));
+
+        this.holdRegistry.take(waiter.getHoldId());
+        this.waitlist.onReservationChanged(new ReservationChangedEvent(waiter.getHoldId(), this.arrival, this.arrival.plusDays(2)));
+
+        assertThat(this.waitlist.find(waiter.getId())).isNull();
+        assertThat(this.waitlist.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotOverfillWhenJoiningConcurrently() throws Exception {
+        Waitlist small = new Waitlist(this.holdRegistry, 5);
+        this.admissionSlots.tryClaim(1, this.arrival, this.arrival.plusDays(2), "booked");
+        List<Callable<Waitlist.Waiter>> joins = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            joins.add(() -> small.join(1, this.arrival, this.arrival.plusDays(2)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        int joined = 0;
+        try {
+            for (Future<Waitlist.Waiter> waiter : executor.invokeAll(joins)) {
+                if (waiter.get() != null) {
+                    joined++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(joined).isEqualTo(5);
+        assertThat(small.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldCountFailedHoldExpiries() throws Exception {
+        HoldRegistry failing = new HoldRegistry(this.admissionSlots, event -> {
+            throw new IllegalStateException("listener failed");
+        });
+        try {
+            failing.tryHold(1, this.arrival, this.arrival.plusDays(1), Duration.ofMillis(10));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (failing.getExpiryFailureCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+
+            assertThat(failing.getExpiryFailureCount()).isEqualTo(1);
+            assertThat(failing.size()).isEqualTo(0);
+        } finally {
+            failing.destroy();
+        }
+    }
+}